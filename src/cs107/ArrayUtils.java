@@ -1,5 +1,8 @@
 package cs107;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 
 /**
@@ -16,6 +19,11 @@ public final class ArrayUtils {
      */
     private ArrayUtils(){}
 
+    /**
+     * View of a byte array as "Big Endian" integers, read and written 4 bytes at once
+     */
+    private static final VarHandle BIG_ENDIAN_INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
     // ==================================================================================
     // =========================== ARRAY EQUALITY METHODS ===============================
     // ==================================================================================
@@ -249,15 +257,12 @@ public final class ArrayUtils {
             assert input[i] != null;
             assert input[i].length == input[0].length;
         }
-        byte[][] channels = new byte[input.length*input[0].length][4];
+        byte[][] channels = new byte[input.length*input[0].length][];
         int a = 0; //tracker
         for(int i = 0; i < input.length; ++i){
             for(int k = 0; k < input[i].length; ++k){
-                byte[] b = fromInt(input[i][k]);
-                channels[a][0] = b[1]; //r
-                channels[a][1] = b[2]; //g
-                channels[a][2] = b[3]; //b
-                channels[a][3] = b[0]; //a
+                int p = input[i][k];
+                channels[a] = new byte[]{(byte) (p >> 16), (byte) (p >> 8), (byte) p, (byte) (p >>> 24)}; //r, g, b, a
                 a++ ;
             }
         }
@@ -292,18 +297,100 @@ public final class ArrayUtils {
         int a = 0; //tracker
         for(int i = 0; i < height; ++i){
             for(int k = 0; k < width; ++k){
-                byte[] listPassage = input[a];
-                byte varPassage = listPassage[3]; //les prochaines lignes servent à replacer
-                listPassage[3] = listPassage[2];  //le A devant.
-                listPassage[2] = listPassage[1];
-                listPassage[1] = varPassage;
-                image[i][k] = toInt(listPassage);
+                byte[] c = input[a];
+                // The A is put back in front without touching the input
+                image[i][k] = (c[3] & 0xFF) << 24 | (c[0] & 0xFF) << 16 | (c[1] & 0xFF) << 8 | (c[2] & 0xFF);
                 a++ ;
             }
 
         }
         return image ;
     }
+
+    // ==================================================================================
+    // ============================== BULK SWIZZLING METHODS ============================
+    // ==================================================================================
+
+    /**
+     * Convert packed ARGB pixels to interleaved RGBA bytes, the layout of the pixels
+     * of the reference "Quite Ok Image" implementation and of most image libraries
+     * @param pixels (int[]) - ARGB packed pixels
+     * @return (byte[]) - Array of 4 * pixels.length bytes, R, G, B and A for every pixel
+     * @throws AssertionError if the pixels are null
+     */
+    public static byte[] argbToRgba(int[] pixels){
+        assert pixels != null;
+        byte[] rgba = new byte[Math.multiplyExact(pixels.length, 4)];
+        argbToRgba(pixels, 0, rgba, 0, pixels.length);
+        return rgba;
+    }
+
+    /**
+     * Convert packed ARGB pixels to interleaved RGBA bytes in the given buffer.
+     * Every pixel is rotated by one byte and stored as a single "Big Endian" integer.
+     * @param pixels (int[]) - ARGB packed pixels
+     * @param from (int) - Index of the first pixel to convert
+     * @param output (byte[]) - Buffer where to write the RGBA bytes
+     * @param position (int) - Index in the buffer of the first byte to write
+     * @param count (int) - Number of pixels to convert
+     * @throws AssertionError if one of the arrays is null or one of the ranges is invalid
+     */
+    public static void argbToRgba(int[] pixels, int from, byte[] output, int position, int count){
+        assert pixels != null && output != null;
+        assert count >= 0 && 0 <= from && from <= pixels.length - count;
+        assert 0 <= position && position <= output.length - 4L * count;
+        int i = from, j = position, end = from + count;
+        // Unrolled by 4 pixels : 16 bytes of output per iteration, the loop overhead is paid once for them
+        for (; i <= end - 4; i += 4, j += 16){
+            BIG_ENDIAN_INT.set(output, j, Integer.rotateLeft(pixels[i], 8));
+            BIG_ENDIAN_INT.set(output, j + 4, Integer.rotateLeft(pixels[i + 1], 8));
+            BIG_ENDIAN_INT.set(output, j + 8, Integer.rotateLeft(pixels[i + 2], 8));
+            BIG_ENDIAN_INT.set(output, j + 12, Integer.rotateLeft(pixels[i + 3], 8));
+        }
+        for (; i < end; ++i, j += 4){
+            BIG_ENDIAN_INT.set(output, j, Integer.rotateLeft(pixels[i], 8));
+        }
+    }
+
+    /**
+     * Convert interleaved RGBA bytes to packed ARGB pixels
+     * @param rgba (byte[]) - R, G, B and A bytes of every pixel
+     * @return (int[]) - ARGB packed pixels
+     * @throws AssertionError if the input is null or its length is not a multiple of 4
+     */
+    public static int[] rgbaToArgb(byte[] rgba){
+        assert rgba != null && rgba.length % 4 == 0;
+        int[] pixels = new int[rgba.length / 4];
+        rgbaToArgb(rgba, 0, pixels, 0, pixels.length);
+        return pixels;
+    }
+
+    /**
+     * Convert interleaved RGBA bytes to packed ARGB pixels in the given buffer.
+     * Every pixel is read as a single "Big Endian" integer and rotated by one byte.
+     * @param input (byte[]) - R, G, B and A bytes of every pixel
+     * @param position (int) - Index in the input of the first byte to read
+     * @param pixels (int[]) - Buffer where to write the ARGB packed pixels
+     * @param from (int) - Index of the first pixel to write
+     * @param count (int) - Number of pixels to convert
+     * @throws AssertionError if one of the arrays is null or one of the ranges is invalid
+     */
+    public static void rgbaToArgb(byte[] input, int position, int[] pixels, int from, int count){
+        assert input != null && pixels != null;
+        assert count >= 0 && 0 <= from && from <= pixels.length - count;
+        assert 0 <= position && position <= input.length - 4L * count;
+        int i = from, j = position, end = from + count;
+        for (; i <= end - 4; i += 4, j += 16){
+            pixels[i] = Integer.rotateRight((int) BIG_ENDIAN_INT.get(input, j), 8);
+            pixels[i + 1] = Integer.rotateRight((int) BIG_ENDIAN_INT.get(input, j + 4), 8);
+            pixels[i + 2] = Integer.rotateRight((int) BIG_ENDIAN_INT.get(input, j + 8), 8);
+            pixels[i + 3] = Integer.rotateRight((int) BIG_ENDIAN_INT.get(input, j + 12), 8);
+        }
+        for (; i < end; ++i, j += 4){
+            pixels[i] = Integer.rotateRight((int) BIG_ENDIAN_INT.get(input, j), 8);
+        }
+    }
+
     public static void printdoublebyte(byte[][] bytes){
 
         for (int i = 0; i < bytes.length ; ++i){
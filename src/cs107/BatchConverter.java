@@ -0,0 +1,393 @@
+package cs107;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Command line converter of whole folders between "PNG" and "QOI".
+ * The files ending with ".png" are encoded to ".qoi", the files ending with ".qoi"
+ * are decoded to ".png". Every file goes through a pipeline of three stages : reading
+ * and writing run on a pool of I/O threads, encoding and decoding on a pool with one
+ * thread per core, so the stages of different files overlap. The number of files
+ * in the pipeline is bounded, so is the memory used.
+ * With an output folder (option -o), every file keeps its path relative to the folder or glob it was found in.
+ * With a QOIEncodeCache (option -c), a "PNG" file already encoded is not encoded again :
+ * its ".qoi" file is copied from the entry of the cache, or linked to it with the option -l.
+ * @apiNote Usage : BatchConverter [-o output folder] [-j codec threads] [-c cache folder [-l]] (folder | glob | file) ...
+ */
+public final class BatchConverter {
+
+    /**
+     * Not instantiable
+     */
+    private BatchConverter(){}
+
+    /**
+     * Number of I/O threads per codec thread
+     */
+    private static final int IO_THREADS_PER_CODEC_THREAD = 2;
+
+    /**
+     * Number of files allowed in the pipeline per codec thread
+     */
+    private static final int FILES_PER_CODEC_THREAD = 4;
+
+    /**
+     * Size of the QOIEncodeCache given with the option -c
+     */
+    private static final long CACHE_BUDGET = 1L << 30;
+
+    /**
+     * A file to convert
+     * @param file (Path) - The ".png" or ".qoi" file
+     * @param relative (Path) - Path of the file relative to the folder or glob it was found in,
+     * its name for a file given alone
+     */
+    public record Input(Path file, Path relative){}
+
+    /**
+     * Result of the conversion of a file
+     * @param input (Path) - Converted file
+     * @param output (Path) - Produced file
+     * @param inputSize (long) - Size of the converted file
+     * @param outputSize (long) - Size of the produced file
+     * @param error (String) - Reason of the failure, null if the conversion succeeded
+     */
+    public record Conversion(Path input, Path output, long inputSize, long outputSize, String error){
+
+        /**
+         * @return (double) - Ratio of the "PNG" file size over the "QOI" file size, in percent like Main::ratio
+         */
+        public double ratio(){
+            boolean toQoi = isPng(input);
+            // Main::ratio takes int sizes, a file may be larger than 2 GB
+            return 100d * (toQoi ? inputSize : outputSize) / (toQoi ? outputSize : inputSize);
+        }
+    }
+
+    /**
+     * Main entry point of the converter
+     * @param args (String[]) - Arguments passed to the program via the command line
+     */
+    public static void main(String[] args){
+        Path output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path cacheFolder = null;
+        boolean link = false;
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i){
+            switch (args[i]){
+                case "-o" -> output = Path.of(args[++i]);
+                case "-j" -> threads = Integer.parseInt(args[++i]);
+                case "-c" -> cacheFolder = Path.of(args[++i]);
+                case "-l" -> link = true;
+                default -> patterns.add(args[i]);
+            }
+        }
+        if (patterns.isEmpty() || link && cacheFolder == null){
+            System.err.println("Usage : BatchConverter [-o output folder] [-j codec threads] [-c cache folder [-l]] (folder | glob | file) ...");
+            return;
+        }
+        QOIEncodeCache cache = cacheFolder == null ? null : new QOIEncodeCache(cacheFolder, CACHE_BUDGET, link);
+
+        long start = System.nanoTime();
+        List<Conversion> conversions = convert(listFiles(patterns), output, threads, cache);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long read = 0, written = 0, failures = 0;
+        for (Conversion c : conversions){
+            if (c.error() != null){
+                ++failures;
+                System.out.printf("%-50s FAILED : %s%n", c.input(), c.error());
+            } else {
+                read += c.inputSize();
+                written += c.outputSize();
+                System.out.printf("%-50s -> %-50s ratio %7.2f%n", c.input(), c.output(), c.ratio());
+            }
+        }
+        System.out.printf("%d files (%d failed) in %.2f s : %.1f files/s, %.1f MB/s read, %.1f MB/s written%n",
+                conversions.size(), failures, seconds, conversions.size() / seconds, read / 1e6 / seconds, written / 1e6 / seconds);
+        if (cache != null){
+            System.out.println("cache : " + cache);
+        }
+    }
+
+    // ==================================================================================
+    // ================================ CONVERSION METHODS ==============================
+    // ==================================================================================
+
+    /**
+     * Convert the given files through the pipeline
+     * @param files (List<Input>) - Files to convert, ".png" or ".qoi"
+     * @param output (Path) - Folder where to write the converted files, under their relative path,
+     * null to write them next to their input
+     * @param threads (int) - Number of threads encoding and decoding
+     * @return (List<Conversion>) - The conversions, in the same order as the files
+     */
+    public static List<Conversion> convert(List<Input> files, Path output, int threads){
+        return convert(files, output, threads, null);
+    }
+
+    /**
+     * Convert the given files through the pipeline, the "PNG" files going through an encode cache :
+     * the content of a "PNG" file is hashed when it is read, if it is in the cache its ".qoi" file
+     * is copied from (or linked to) the entry of the cache, otherwise it is encoded and stored in the cache.
+     * An input whose converted file is already produced by a previous input, or is itself one of the inputs
+     * (like "x.png" next to "x.qoi"), fails instead of overwriting it
+     * @param files (List<Input>) - Files to convert, ".png" or ".qoi"
+     * @param output (Path) - Folder where to write the converted files, under their relative path,
+     * null to write them next to their input
+     * @param threads (int) - Number of threads encoding and decoding
+     * @param cache (QOIEncodeCache) - Cache of the encoded files, null to encode every file
+     * @return (List<Conversion>) - The conversions, in the same order as the files
+     */
+    public static List<Conversion> convert(List<Input> files, Path output, int threads, QOIEncodeCache cache){
+        assert files != null && threads > 0;
+        ExecutorService io = Executors.newFixedThreadPool(threads * IO_THREADS_PER_CODEC_THREAD);
+        ExecutorService codec = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(threads * FILES_PER_CODEC_THREAD);
+        Path folder = output;
+        try {
+            Set<Path> inputs = new HashSet<>();
+            for (Input input : files){
+                inputs.add(input.file().toAbsolutePath().normalize());
+            }
+            Set<Path> targets = new HashSet<>();
+            Set<Path> folders = new HashSet<>();
+            List<CompletableFuture<Conversion>> futures = new ArrayList<>(files.size());
+            for (Input input : files){
+                Path file = input.file();
+                Path target = target(input, output);
+                if (inputs.contains(target)){
+                    futures.add(CompletableFuture.completedFuture(new Conversion(file, target, 0, 0, "The output file is also an input")));
+                    continue;
+                }
+                if (!targets.add(target)){
+                    futures.add(CompletableFuture.completedFuture(new Conversion(file, target, 0, 0, "Same output file as a previous input")));
+                    continue;
+                }
+                folder = target.getParent();
+                if (folders.add(folder)){
+                    Files.createDirectories(folder);
+                }
+                inFlight.acquire();
+                CompletableFuture<Conversion> future = (cache != null && isPng(file)
+                        ? cached(file, target, cache, io, codec)
+                        : CompletableFuture
+                        .supplyAsync(() -> read(file), io)
+                        .thenApplyAsync(content -> isPng(file) ? pngToQoi(content) : qoiToPng(content), codec)
+                        .thenApplyAsync(converted -> {
+                            write(target, converted);
+                            return new Conversion(file, target, sizeOf(file), converted.length, null);
+                        }, io))
+                        .exceptionally(e -> new Conversion(file, target, 0, 0, String.valueOf(e.getCause() == null ? e : e.getCause())))
+                        .whenComplete((c, e) -> inFlight.release());
+                futures.add(future);
+            }
+            List<Conversion> conversions = new ArrayList<>(futures.size());
+            for (CompletableFuture<Conversion> future : futures){
+                conversions.add(future.join());
+            }
+            return conversions;
+        } catch (IOException e){
+            return Helper.fail("Cannot create the folder \"%s\"", folder);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return Helper.fail("Interrupted while converting");
+        } finally {
+            io.shutdown();
+            codec.shutdown();
+        }
+    }
+
+    /**
+     * A "PNG" file missing from the encode cache
+     * @param key (ContentHash) - Hash of the "PNG" file
+     * @param content (byte[]) - Content of the "PNG" file, then of its "QOI" file
+     */
+    private record Missed(ContentHash key, byte[] content){}
+
+    /**
+     * Convert a "PNG" file through the encode cache : hashed and copied (or linked) on the I/O threads,
+     * encoded on the codec threads only if it is not in the cache
+     * @param file (Path) - The "PNG" file
+     * @param target (Path) - The "QOI" file to write
+     * @param cache (QOIEncodeCache) - Cache of the encoded files
+     * @param io (ExecutorService) - Pool of the I/O threads
+     * @param codec (ExecutorService) - Pool of the codec threads
+     * @return (CompletableFuture<Conversion>) - The conversion
+     */
+    private static CompletableFuture<Conversion> cached(Path file, Path target, QOIEncodeCache cache,
+                                                        ExecutorService io, ExecutorService codec){
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    byte[] content = read(file);
+                    ContentHash key = ContentHash.of(content);
+                    return cache.place(key, target) ? null : new Missed(key, content);
+                }, io)
+                .thenApplyAsync(missed -> missed == null ? null : new Missed(missed.key(), pngToQoi(missed.content())), codec)
+                .thenApplyAsync(encoded -> {
+                    if (encoded != null){
+                        try {
+                            cache.placeStored(cache.store(encoded.key(), encoded.content()), encoded.content(), target);
+                        } catch (IOException e){
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    return new Conversion(file, target, sizeOf(file), sizeOf(target), null);
+                }, io);
+    }
+
+    /**
+     * Encode the content of a "PNG" file to a "QOI" file
+     * @param png (byte[]) - Content of the "PNG" file
+     * @return (byte[]) - Content of the "QOI" file
+     */
+    public static byte[] pngToQoi(byte[] png){
+        try {
+            var image = ImageIO.read(new ByteArrayInputStream(png));
+            if (image == null){
+                return Helper.fail("Not a readable image");
+            }
+            return QOIEncoder.qoiFile(ImageBridge.toPackedImage(image));
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decode the content of a "QOI" file to a "PNG" file
+     * @param qoi (byte[]) - Content of the "QOI" file
+     * @return (byte[]) - Content of the "PNG" file
+     */
+    public static byte[] qoiToPng(byte[] qoi){
+        try {
+            var output = new ByteArrayOutputStream();
+            ImageIO.write(ImageBridge.toBufferedImage(QOIDecoder.decodePackedQoiFile(qoi)), "png", output);
+            return output.toByteArray();
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ==================================================================================
+    // ==================================== FILE METHODS ================================
+    // ==================================================================================
+
+    /**
+     * List the ".png" and ".qoi" files designated by folders, globs or paths
+     * @param patterns (List<String>) - Folders (searched recursively), globs (like "images/**.png") or files
+     * @return (List<Input>) - The files, sorted in each folder or glob
+     * @throws RuntimeException if a file given alone is not a ".png" or ".qoi" file
+     */
+    public static List<Input> listFiles(List<String> patterns){
+        List<Input> files = new ArrayList<>();
+        for (String pattern : patterns){
+            Path path = Path.of(pattern);
+            int glob = indexOfGlob(pattern);
+            if (glob < 0 && !Files.isDirectory(path)){
+                if (!isPng(path) && !isQoi(path)){
+                    Helper.fail("\"%s\" is not a \".png\" or \".qoi\" file", pattern);
+                }
+                files.add(new Input(path, path.getFileName()));
+                continue;
+            }
+            Path base = glob < 0 ? path : baseOf(pattern, glob);
+            PathMatcher matcher = glob < 0 ? p -> true : FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            try (Stream<Path> walk = Files.walk(base)){
+                walk.filter(Files::isRegularFile)
+                        .filter(p -> isPng(p) || isQoi(p))
+                        .filter(matcher::matches)
+                        .sorted()
+                        .forEach(file -> files.add(new Input(file, base.relativize(file))));
+            } catch (IOException e){
+                Helper.fail("Cannot list \"%s\"", pattern);
+            }
+        }
+        return files;
+    }
+
+    private static int indexOfGlob(String pattern){
+        for (int i = 0; i < pattern.length(); ++i){
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Path baseOf(String pattern, int glob){
+        int slash = pattern.lastIndexOf('/', glob);
+        return Path.of(slash < 0 ? "." : pattern.substring(0, slash + 1));
+    }
+
+    /**
+     * Converted file of an input : next to it, or under its relative path in the output folder
+     * @param input (Input) - A ".png" or ".qoi" file
+     * @param output (Path) - Output folder, null to write next to the input
+     * @return (Path) - Absolute and normalized path of the converted file
+     */
+    private static Path target(Input input, Path output){
+        Path file = input.file();
+        assert isPng(file) || isQoi(file);
+        Path relative = output == null ? file.toAbsolutePath().getFileName() : input.relative();
+        String name = relative.getFileName().toString();
+        name = name.substring(0, name.length() - ".png".length()) + (isPng(file) ? ".qoi" : ".png");
+        Path folder = output == null ? file.toAbsolutePath().getParent() : output.resolve(relative).getParent();
+        return folder.resolve(name).toAbsolutePath().normalize();
+    }
+
+    private static boolean isPng(Path file){
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".png");
+    }
+
+    private static boolean isQoi(Path file){
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".qoi");
+    }
+
+    private static byte[] read(Path file){
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(Path file, byte[] content){
+        try {
+            // Written next to its final name and moved, so that a failure never leaves a partial file
+            Path temporary = file.resolveSibling(file.getFileName() + ".part");
+            Files.write(temporary, content);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long sizeOf(Path file){
+        try {
+            return Files.size(file);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
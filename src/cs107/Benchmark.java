@@ -0,0 +1,554 @@
+package cs107;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Micro-benchmarks of the "Quite Ok Image" codec.
+ * Every case is warmed up, then run for a fixed amount of time. The results give
+ * the mean time of one operation, the throughput in megapixels and in megabytes of
+ * raw RGBA data per second, and the number of bytes allocated by one operation
+ * (the same figure as "gc.alloc.rate.norm" in JMH's "-prof gc").
+ * @apiNote Usage : Benchmark [folder] [suite]. The folder holds the reference images
+ * (default : "references"), the suite is one of "codec", "mapped", "parallel", "runs", "dispatch",
+ * "thumbnail", "region", "tiles", "cache", "probe" (default : all of them)
+ */
+public final class Benchmark {
+
+    /**
+     * Not instantiable
+     */
+    private Benchmark(){}
+
+    private static final long WARMUP_NANOS = 500_000_000L;
+
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    private static final int MIN_ITERATIONS = 3;
+
+    /**
+     * Reference images used by the benchmarks, on top of the synthetic ones
+     */
+    private static final String[] IMAGES = {"beach", "dice", "random", "cube", "EPFL"};
+
+    /**
+     * Size of the synthetic images
+     */
+    private static final int SYNTHETIC_SIZE = 1024;
+
+    /**
+     * Size of the square crops of the region benchmarks, and interval of their restart points
+     */
+    private static final int REGION_SIZE = 256;
+
+    /**
+     * Consumes the results of the measured tasks, so that the JIT cannot drop their computation
+     */
+    private static volatile int sink;
+
+    /**
+     * Main entry point of the benchmarks
+     * @param args (String[]) - Arguments passed to the program via the command line
+     */
+    public static void main(String[] args){
+        String folder = args.length > 0 ? args[0] : "references";
+        String suite = args.length > 1 ? args[1] : "all";
+        if (suite.equals("all") || suite.equals("codec")){
+            benchmarkCodec(folder);
+        }
+        if (suite.equals("all") || suite.equals("mapped")){
+            benchmarkMappedDecoding(folder);
+        }
+        if (suite.equals("all") || suite.equals("parallel")){
+            benchmarkParallel(folder);
+        }
+        if (suite.equals("all") || suite.equals("runs")){
+            benchmarkRuns(folder);
+        }
+        if (suite.equals("all") || suite.equals("dispatch")){
+            benchmarkDispatch(folder);
+        }
+        if (suite.equals("all") || suite.equals("thumbnail")){
+            benchmarkThumbnail(folder);
+        }
+        if (suite.equals("all") || suite.equals("region")){
+            benchmarkRegion(folder);
+        }
+        if (suite.equals("all") || suite.equals("tiles")){
+            benchmarkTiles(folder);
+        }
+        if (suite.equals("all") || suite.equals("cache")){
+            benchmarkImageCache(folder);
+        }
+        if (suite.equals("all") || suite.equals("probe")){
+            benchmarkProbe(folder);
+        }
+    }
+
+    // ============================================================================================
+    // ================================== FIXTURES ================================================
+    // ============================================================================================
+
+    /**
+     * An image with all its representations, computed once before the measurements
+     * @param name (String) - Name of the image
+     * @param image (Helper.Image) - The image
+     * @param channels (byte[][]) - The image formatted by ArrayUtils::imageToChannels
+     * @param qoi (byte[]) - The "Quite Ok Image" file of the image
+     */
+    private record Fixture(String name, Helper.Image image, byte[][] channels, byte[] qoi){
+
+        int width(){
+            return image.data()[0].length;
+        }
+
+        int height(){
+            return image.data().length;
+        }
+
+        long pixels(){
+            return (long) width() * height();
+        }
+
+        byte[] data(){
+            return Arrays.copyOfRange(qoi, QOISpecification.HEADER_SIZE, qoi.length - QOISpecification.QOI_EOF.length);
+        }
+
+        static Fixture of(String name, Helper.Image image){
+            return new Fixture(name, image, ArrayUtils.imageToChannels(image.data()), QOIEncoder.qoiFile(image));
+        }
+    }
+
+    /**
+     * Load the reference images and generate the synthetic ones
+     * @param folder (String) - Folder holding the reference images
+     * @return (List<Fixture>) - The images
+     */
+    private static List<Fixture> fixtures(String folder){
+        List<Fixture> fixtures = new ArrayList<>();
+        for (String name : IMAGES){
+            fixtures.add(Fixture.of(name, Helper.readImage(folder + File.separator + name + ".png")));
+        }
+        fixtures.add(Fixture.of("gradient", gradient(SYNTHETIC_SIZE, SYNTHETIC_SIZE)));
+        fixtures.add(Fixture.of("noise", noise(SYNTHETIC_SIZE, SYNTHETIC_SIZE)));
+        return fixtures;
+    }
+
+    /**
+     * Generate an opaque image with smooth horizontal and vertical gradients
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (Helper.Image) - The image
+     */
+    private static Helper.Image gradient(int width, int height){
+        int[][] data = new int[height][width];
+        for (int y = 0; y < height; ++y){
+            for (int x = 0; x < width; ++x){
+                int r = x * 255 / width, g = y * 255 / height, b = (x + y) * 255 / (width + height);
+                data[y][x] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+        }
+        return Helper.generateImage(data, QOISpecification.RGB, QOISpecification.sRGB);
+    }
+
+    /**
+     * Generate an image looking like a screenshot : a flat background
+     * with flat rectangles and a few thin lines of text-like noise
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (Helper.Image) - The image
+     */
+    private static Helper.Image flat(int width, int height){
+        Random random = new Random(107);
+        int[][] data = new int[height][width];
+        for (int y = 0; y < height; ++y){
+            for (int x = 0; x < width; ++x){
+                boolean panel = x % 256 >= 16 && x % 256 < 240 && y % 128 >= 24;
+                boolean text = panel && y % 16 < 2 && x % 256 < 120;
+                data[y][x] = text ? 0xFF000000 | random.nextInt(0x1000000) : panel ? 0xFFF0F0F0 : 0xFF2B579A;
+            }
+        }
+        return Helper.generateImage(data, QOISpecification.RGB, QOISpecification.sRGB);
+    }
+
+    /**
+     * Generate an image with uniformly random pixels, alpha included
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (Helper.Image) - The image
+     */
+    private static Helper.Image noise(int width, int height){
+        Random random = new Random(107);
+        int[][] data = new int[height][width];
+        for (int[] row : data){
+            for (int x = 0; x < width; ++x){
+                row[x] = random.nextInt();
+            }
+        }
+        return Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB);
+    }
+
+    // ============================================================================================
+    // ================================== CODEC BENCHMARKS ========================================
+    // ============================================================================================
+
+    /**
+     * Measure the encoder, the decoder, the formatting methods and the whole file round trip
+     * on the reference and synthetic images
+     * @param folder (String) - Folder holding the reference images
+     */
+    public static void benchmarkCodec(String folder){
+        System.out.println("================================== Encoder / Decoder hot paths ==================================");
+        for (Fixture f : fixtures(folder)){
+            byte[] data = f.data();
+            byte[][] channels = ArrayUtils.imageToChannels(f.image().data());
+            report(f, "QOIEncoder.encodeData", measure(() -> QOIEncoder.encodeData(f.channels())));
+            report(f, "QOIDecoder.decodeData", measure(() -> QOIDecoder.decodeData(data, f.width(), f.height())));
+            report(f, "ArrayUtils.imageToChannels", measure(() -> ArrayUtils.imageToChannels(f.image().data())));
+            report(f, "ArrayUtils.channelsToImage", measure(() -> ArrayUtils.channelsToImage(channels, f.height(), f.width())));
+            int[] argb = PackedImage.fromImage(f.image()).data();
+            byte[] rgba = ArrayUtils.argbToRgba(argb);
+            report(f, "ArrayUtils.argbToRgba", measure(() -> ArrayUtils.argbToRgba(argb)));
+            report(f, "ArrayUtils.rgbaToArgb", measure(() -> ArrayUtils.rgbaToArgb(rgba)));
+            report(f, "QOIEncoder.qoiFile", measure(() -> QOIEncoder.qoiFile(f.image())));
+            report(f, "QOIDecoder.decodeQoiFile", measure(() -> QOIDecoder.decodeQoiFile(f.qoi())));
+            report(f, "qoiFile + decodeQoiFile", measure(() -> QOIDecoder.decodeQoiFile(QOIEncoder.qoiFile(f.image()))));
+            // Steady state of a long-running service : the buffers of the context are reused
+            PackedImage packed = PackedImage.fromImage(f.image());
+            QOICodecContext context = new QOICodecContext();
+            report(f, "QOICodecContext.encode", measure(() -> context.encode(packed)));
+            report(f, "QOICodecContext.decode", measure(() -> context.decode(f.qoi())));
+            // Cost of the instrumentation : without statistics only the JFR event is created
+            byte[] file = new byte[QOIChunkEncoder.maxFileSize(packed.width(), packed.height())];
+            QOIStats stats = new QOIStats();
+            report(f, "QOIEncoder.qoiFile(PackedImage, byte[])", measure(() -> QOIEncoder.qoiFile(packed, file)));
+            report(f, "QOIEncoder.qoiFile(..., QOIStats)", measure(() -> QOIEncoder.qoiFile(packed, file, stats)));
+            report(f, "QOIDecoder.decodeQoiPixels(..., QOIStats)", measure(() -> QOIDecoder.decodeQoiPixels(f.qoi(), context.pixels(), stats)));
+        }
+    }
+
+    // ============================================================================================
+    // ================================== RUN DETECTION BENCHMARKS ================================
+    // ============================================================================================
+
+    /**
+     * Compare the run detection pixel by pixel with the one using Arrays::mismatch,
+     * alone and inside the encoder, on run-heavy images
+     * @param folder (String) - Folder holding the reference images
+     */
+    public static void benchmarkRuns(String folder){
+        System.out.println("===================================== Run detection ============================================");
+        List<Fixture> fixtures = List.of(
+                Fixture.of("qoi_op_run", Helper.readImage(folder + File.separator + "qoi_op_run.png")),
+                Fixture.of("EPFL", Helper.readImage(folder + File.separator + "EPFL.png")),
+                Fixture.of("flat", flat(SYNTHETIC_SIZE, SYNTHETIC_SIZE)),
+                Fixture.of("noise", noise(SYNTHETIC_SIZE, SYNTHETIC_SIZE)));
+        for (Fixture f : fixtures){
+            PackedImage packed = PackedImage.fromImage(f.image());
+            int[] pixels = packed.data();
+            report(f, "QOIChunkEncoder.runLengthScalar", measure(() -> countRuns(pixels, false)));
+            report(f, "QOIChunkEncoder.runLength", measure(() -> countRuns(pixels, true)));
+            report(f, "QOIEncoder.qoiFile(PackedImage)", measure(() -> QOIEncoder.qoiFile(packed)));
+        }
+    }
+
+    /**
+     * Split the pixels in runs of equal pixels
+     * @param pixels (int[]) - Pixels to split
+     * @param vectorized (boolean) - Use QOIChunkEncoder::runLength or QOIChunkEncoder::runLengthScalar
+     * @return (Integer) - Number of runs
+     */
+    private static Integer countRuns(int[] pixels, boolean vectorized){
+        int runs = 0;
+        for (int i = 0; i < pixels.length; ++runs){
+            i += vectorized ? QOIChunkEncoder.runLength(pixels, i, pixels.length) : QOIChunkEncoder.runLengthScalar(pixels, i, pixels.length);
+        }
+        return runs;
+    }
+
+    // ============================================================================================
+    // ================================== DECODER DISPATCH BENCHMARKS =============================
+    // ============================================================================================
+
+    /**
+     * Measure the chunk decoder alone, decoding in a reused buffer, on every "Quite Ok Image" file
+     * of the folder : random.qoi is mostly QOI_OP_RGB chunks, qoi_op_run.qoi mostly QOI_OP_RUN chunks
+     * @param folder (String) - Folder holding the reference images
+     */
+    public static void benchmarkDispatch(String folder){
+        System.out.println("===================================== Decoder dispatch =========================================");
+        for (File file : qoiFiles(folder)){
+            byte[] content = Helper.read(file.getPath());
+            int[] header = QOIDecoder.decodeHeader(Arrays.copyOf(content, QOISpecification.HEADER_SIZE));
+            long pixels = (long) header[0] * header[1];
+            int[] buffer = new int[(int) pixels];
+            report(file.getName(), pixels, "QOIDecoder.decodeQoiPixels", measure(() -> QOIDecoder.decodeQoiPixels(content, buffer)));
+        }
+    }
+
+    // ============================================================================================
+    // ================================== THUMBNAIL BENCHMARKS ====================================
+    // ============================================================================================
+
+    /**
+     * Compare the decoding of the whole image with the decoding of 1/8 previews
+     * and of the 1/2, 1/4 and 1/8 previews in a single pass
+     * @param folder (String) - Folder holding the reference images
+     */
+    public static void benchmarkThumbnail(String folder){
+        System.out.println("===================================== Thumbnail decoding =======================================");
+        for (Fixture f : fixtures(folder)){
+            report(f, "QOIDecoder.decodePackedQoiFile", measure(() -> QOIDecoder.decodePackedQoiFile(f.qoi())));
+            report(f, "QOIThumbnail.decode 1/8 box", measure(() -> QOIThumbnail.decode(f.qoi(), 8, QOIThumbnail.Filter.BOX)));
+            report(f, "QOIThumbnail.decode 1/8 nearest", measure(() -> QOIThumbnail.decode(f.qoi(), 8, QOIThumbnail.Filter.NEAREST)));
+            report(f, "QOIThumbnail.decode 1/2, 1/4, 1/8", measure(() -> QOIThumbnail.decode(f.qoi(), new int[]{2, 4, 8}, QOIThumbnail.Filter.BOX)));
+        }
+    }
+
+    // ============================================================================================
+    // ================================== REGION BENCHMARKS =======================================
+    // ============================================================================================
+
+    /**
+     * Compare the decoding of the whole image with the decoding of a square crop
+     * at the top-left and at the bottom-right corner, with and without restart points
+     * @param folder (String) - Folder holding the reference images
+     */
+    public static void benchmarkRegion(String folder){
+        System.out.println("===================================== Region decoding ==========================================");
+        for (Fixture f : fixtures(folder)){
+            int size = Math.min(REGION_SIZE, Math.min(f.width(), f.height()));
+            int x = f.width() - size, y = f.height() - size;
+            QOIRestartIndex index = QOIRestartIndex.encode(PackedImage.fromImage(f.image()), REGION_SIZE).index();
+            report(f, "QOIDecoder.decodePackedQoiFile", measure(() -> QOIDecoder.decodePackedQoiFile(f.qoi())));
+            report(f, "decodeRegion top-left", measure(() -> QOIDecoder.decodeRegion(f.qoi(), 0, 0, size, size)));
+            report(f, "decodeRegion bottom-right", measure(() -> QOIDecoder.decodeRegion(f.qoi(), x, y, size, size)));
+            report(f, "QOIRestartIndex.decodeRegion b-r", measure(() -> index.decodeRegion(f.qoi(), x, y, size, size)));
+        }
+    }
+
+    // ============================================================================================
+    // ================================== TILE BENCHMARKS =========================================
+    // ============================================================================================
+
+    /**
+     * Compare the decoding of the whole image with the decoding of its tiled file,
+     * of a single tile at the bottom-right corner and of a crop at the bottom-right corner
+     * @param folder (String) - Folder holding the reference images
+     */
+    public static void benchmarkTiles(String folder){
+        System.out.println("======================================= Tiled files ============================================");
+        for (Fixture f : fixtures(folder)){
+            byte[] tiled = QOITiles.encode(PackedImage.fromImage(f.image()));
+            QOITiles.Reader reader = new QOITiles.Reader(ByteBuffer.wrap(tiled));
+            int size = Math.min(REGION_SIZE, Math.min(f.width(), f.height()));
+            int x = f.width() - size, y = f.height() - size;
+            report(f, "QOIDecoder.decodePackedQoiFile", measure(() -> QOIDecoder.decodePackedQoiFile(f.qoi())));
+            report(f, "QOITiles.decode", measure(() -> QOITiles.decode(tiled)));
+            report(f, "QOITiles.Reader.tile b-r", measure(() -> reader.tile(reader.columns() - 1, reader.rows() - 1)));
+            report(f, "QOITiles.Reader.region b-r", measure(() -> reader.region(x, y, size, size, ForkJoinPool.commonPool())));
+        }
+    }
+
+    // ============================================================================================
+    // ================================== CACHE BENCHMARKS ========================================
+    // ============================================================================================
+
+    /**
+     * Compare the decoding of the "Quite Ok Image" files of the folder with a hit
+     * in a QOIImageCache, keyed by file and keyed by content
+     * @param folder (String) - Folder holding the files
+     */
+    public static void benchmarkImageCache(String folder){
+        System.out.println("====================================== Decoded image cache =====================================");
+        QOIImageCache cache = new QOIImageCache(256L << 20);
+        for (File file : qoiFiles(folder)){
+            String path = file.getPath();
+            byte[] content = Helper.read(path);
+            int[] header = QOIDecoder.decodeHeader(Arrays.copyOf(content, QOISpecification.HEADER_SIZE));
+            long pixels = (long) header[0] * header[1];
+            report(file.getName(), pixels, "Helper.map + decodePackedQoiFile", measure(() -> QOIDecoder.decodePackedQoiFile(Helper.map(path))));
+            report(file.getName(), pixels, "QOIImageCache.get(path) hit", measure(() -> cache.get(path)));
+            report(file.getName(), pixels, "QOIImageCache.get(content) hit", measure(() -> cache.get(content)));
+        }
+        System.out.println(cache);
+    }
+
+    // ============================================================================================
+    // ================================== PROBE BENCHMARKS ========================================
+    // ============================================================================================
+
+    /**
+     * Compare reading the header of the "Quite Ok Image" files of the folder from the whole file read,
+     * from a memory-mapped view and with the positional reads of QOIProbe
+     * @param folder (String) - Folder holding the files
+     */
+    public static void benchmarkProbe(String folder){
+        System.out.println("======================================= Header probing =========================================");
+        for (File file : qoiFiles(folder)){
+            String path = file.getPath();
+            QOIProbe.Info info = QOIProbe.probe(file.toPath());
+            report(file.getName(), info.pixels(), "Helper.read + decodeHeader",
+                    measure(() -> QOIDecoder.decodeHeader(Arrays.copyOf(Helper.read(path), QOISpecification.HEADER_SIZE))));
+            report(file.getName(), info.pixels(), "Helper.map + decodeHeader", measure(() -> {
+                byte[] header = new byte[QOISpecification.HEADER_SIZE];
+                Helper.map(path).get(0, header);
+                return QOIDecoder.decodeHeader(header);
+            }));
+            report(file.getName(), info.pixels(), "QOIProbe.probe", measure(() -> QOIProbe.probe(file.toPath())));
+        }
+        long start = System.nanoTime();
+        List<QOIProbe.Info> infos = QOIProbe.scan(new File(folder).toPath(), QOIProbe.DEFAULT_THREADS);
+        System.out.printf("QOIProbe.scan : %d files in %.2f ms%n", infos.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    // ============================================================================================
+    // ================================== PARALLEL BENCHMARKS =====================================
+    // ============================================================================================
+
+    /**
+     * Compare the single-stream encoding and decoding with the striped ones
+     * and the decoding with restart points, running on all the cores
+     * @param folder (String) - Folder holding the reference images
+     */
+    public static void benchmarkParallel(String folder){
+        System.out.println("=================================== Single stream vs stripes ====================================");
+        for (Fixture f : fixtures(folder)){
+            PackedImage image = PackedImage.fromImage(f.image());
+            byte[] striped = QOIStripes.encode(image);
+            QOIRestartIndex.Indexed indexed = QOIRestartIndex.encode(image, QOIStripes.defaultStripeHeight(image.height(), ForkJoinPool.commonPool().getParallelism()));
+            report(f, "QOIEncoder.qoiFile (packed)", measure(() -> QOIEncoder.qoiFile(image)));
+            report(f, "QOIStripes.encode", measure(() -> QOIStripes.encode(image)));
+            report(f, "QOIDecoder.decodePackedQoiFile", measure(() -> QOIDecoder.decodePackedQoiFile(f.qoi())));
+            report(f, "QOIStripes.decode", measure(() -> QOIStripes.decode(striped)));
+            report(f, "QOIRestartIndex.decode", measure(() -> indexed.index().decode(indexed.file(), ForkJoinPool.commonPool())));
+        }
+    }
+
+    // ============================================================================================
+    // ================================== DECODING BENCHMARKS =====================================
+    // ============================================================================================
+
+    /**
+     * Compare the decoding of the "Quite Ok Image" files of the folder when they are read
+     * on the heap (Helper::read + QOIDecoder::decodeQoiFile) and when they are memory-mapped
+     * (Helper::map + QOIDecoder::decodePackedQoiFile)
+     * @param folder (String) - Folder holding the files
+     */
+    public static void benchmarkMappedDecoding(String folder){
+        System.out.println("================================ Heap read vs memory-mapped decoding ============================");
+        for (File file : qoiFiles(folder)){
+            String path = file.getPath();
+            int[] header = QOIDecoder.decodeHeader(Arrays.copyOf(Helper.read(path), QOISpecification.HEADER_SIZE));
+            long pixels = (long) header[0] * header[1];
+            report(file.getName(), pixels, "Helper.read + decodeQoiFile", measure(() -> QOIDecoder.decodeQoiFile(Helper.read(path))));
+            report(file.getName(), pixels, "Helper.map + decodePackedQoiFile", measure(() -> QOIDecoder.decodePackedQoiFile(Helper.map(path))));
+            IntBuffer direct = ByteBuffer.allocateDirect((int) pixels * 4).asIntBuffer();
+            report(file.getName(), pixels, "Helper.map + decodeQoiFile(direct)", measure(() -> QOIDecoder.decodeQoiFile(Helper.map(path), direct.clear())));
+        }
+    }
+
+    // ============================================================================================
+    // ======================================= UTILITIES ==========================================
+    // ============================================================================================
+
+    /**
+     * Result of a benchmark
+     * @param iterations (long) - Number of measured runs
+     * @param nanos (double) - Mean time of one run, in nanoseconds
+     * @param allocated (double) - Mean number of bytes allocated by one run, -1 if unknown
+     */
+    private record Result(long iterations, double nanos, double allocated){}
+
+    /**
+     * Run a task during the warmup time, then measure it during the measurement time
+     * @param task (Supplier) - Task to measure
+     * @return (Result) - The measurement
+     */
+    private static Result measure(Supplier<?> task){
+        run(task, WARMUP_NANOS);
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long iterations = run(task, MEASURE_NANOS);
+        long elapsed = System.nanoTime() - start;
+        long after = allocatedBytes();
+        return new Result(iterations, (double) elapsed / iterations, allocated < 0 ? -1 : (double) (after - allocated) / iterations);
+    }
+
+    /**
+     * Run a task until the given time is elapsed
+     * @param task (Supplier) - Task to run
+     * @param nanos (long) - Minimum time to spend, in nanoseconds
+     * @return (long) - Number of runs
+     */
+    private static long run(Supplier<?> task, long nanos){
+        long start = System.nanoTime();
+        long iterations = 0;
+        int consumed = 0;
+        while (iterations < MIN_ITERATIONS || System.nanoTime() - start < nanos){
+            consumed ^= System.identityHashCode(task.get());
+            ++iterations;
+        }
+        sink = consumed;
+        return iterations;
+    }
+
+    /**
+     * Number of bytes allocated so far by the current thread
+     * @return (long) - Number of bytes, -1 if the JVM cannot measure it
+     */
+    private static long allocatedBytes(){
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()){
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Print a result in the Terminal
+     * @param f (Fixture) - Measured image
+     * @param name (String) - Name of the benchmark
+     * @param result (Result) - The measurement
+     */
+    private static void report(Fixture f, String name, Result result){
+        report(f.name(), f.pixels(), name, result);
+    }
+
+    /**
+     * Print a result in the Terminal
+     * @param image (String) - Name of the measured image
+     * @param pixels (long) - Number of pixels of the measured image
+     * @param name (String) - Name of the benchmark
+     * @param result (Result) - The measurement
+     */
+    private static void report(String image, long pixels, String name, Result result){
+        double seconds = result.nanos() / 1e9;
+        System.out.printf("%-20s %-34s %10.3f ms/op %9.1f MP/s %9.1f MB/s %12.1f KB alloc/op%n",
+                image, name, result.nanos() / 1e6, pixels / 1e6 / seconds, pixels * 4 / 1e6 / seconds,
+                result.allocated() / 1024);
+    }
+
+    /**
+     * List the "Quite Ok Image" files of a folder, sorted by name
+     * @param folder (String) - Folder to list
+     * @return (File[]) - The files
+     */
+    private static File[] qoiFiles(String folder){
+        File[] files = new File(folder).listFiles((dir, name) -> name.endsWith(".qoi"));
+        if (files == null){
+            return Helper.fail("Cannot list the folder \"%s\"", folder);
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+}
@@ -0,0 +1,82 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content address of an array of bytes : the first 128 bits of its SHA-256 digest and its length.
+ * Two different contents only get the same hash by a cryptographic collision, so the hash can
+ * stand for the content as the key of a cache.
+ * @param high (long) - Bits 0 to 63 of the digest, "Big Endian"
+ * @param low (long) - Bits 64 to 127 of the digest, "Big Endian"
+ * @param length (long) - Number of hashed bytes
+ */
+public record ContentHash(long high, long low, long length){
+
+    /**
+     * Digest of the current thread, MessageDigest is not thread-safe
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            return Helper.fail("SHA-256 is not available");
+        }
+    });
+
+    /**
+     * Hash an array of bytes
+     * @param content (byte[]) - Bytes to hash
+     * @return (ContentHash) - The hash
+     * @throws AssertionError if the content is null
+     */
+    public static ContentHash of(byte[] content){
+        assert content != null;
+        return of(content, 0, content.length);
+    }
+
+    /**
+     * Hash a part of an array of bytes
+     * @param content (byte[]) - Array holding the bytes to hash
+     * @param offset (int) - Index of the first byte to hash
+     * @param length (int) - Number of bytes to hash
+     * @return (ContentHash) - The hash
+     * @throws AssertionError if the content is null or the range is invalid
+     */
+    public static ContentHash of(byte[] content, int offset, int length){
+        assert content != null && offset >= 0 && length >= 0 && offset + length <= content.length;
+        MessageDigest digest = DIGEST.get();
+        digest.update(content, offset, length);
+        return of(digest.digest(), length);
+    }
+
+    /**
+     * Hash the remaining bytes of a ByteBuffer, which can be direct or memory-mapped.
+     * Its position is moved to its limit
+     * @param content (ByteBuffer) - Bytes to hash, from its position to its limit
+     * @return (ContentHash) - The hash
+     * @throws AssertionError if the content is null
+     */
+    public static ContentHash of(ByteBuffer content){
+        assert content != null;
+        int length = content.remaining();
+        MessageDigest digest = DIGEST.get();
+        digest.update(content);
+        return of(digest.digest(), length);
+    }
+
+    private static ContentHash of(byte[] digest, long length){
+        ByteBuffer bits = ByteBuffer.wrap(digest);
+        return new ContentHash(bits.getLong(), bits.getLong(), length);
+    }
+
+    /**
+     * @return (String) - The hash in hexadecimal, followed by the length
+     */
+    @Override
+    public String toString(){
+        return String.format("%016x%016x:%d", high, low, length);
+    }
+
+}
@@ -6,7 +6,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Helper class. This class contains all the methods considered to be useful
@@ -135,6 +143,38 @@ public final class Helper {
         }
     }
 
+    /**
+     * Read and decode an image from the disk in a packed image. The image can be one of
+     * the standard formats (png, jpeg ...)
+     * @param path (String) - Relative or Absolute Path to the image
+     * @return (PackedImage) - The corresponding packed image
+     */
+    public static PackedImage readPackedImage(String path) {
+        try{
+            var io = ImageIO.read(new File(path));
+            if (io == null){
+                return fail("No reader found for : \"%s\"%n", path);
+            }
+            return ImageBridge.toPackedImage(io);
+        }catch (IOException e){
+            return fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Write a packed image as "PNG" in the disk. This function writes to the folder called "res/"
+     * @param path (String) - Relative or Absolute path to the image
+     * @param image (PackedImage) - Image to store
+     */
+    public static void writePackedImage(String path, PackedImage image) {
+        var abs_path = res_folder + File.separator + path;
+        try {
+            ImageIO.write(ImageBridge.toBufferedImage(image), "png", new File(abs_path));
+        }catch (IOException e){
+            fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
+        }
+    }
+
     // ==================================================================================
     // ======================== BINARY FILE MANIPULATION METHODS ========================
     // ==================================================================================
@@ -152,6 +192,19 @@ public final class Helper {
         }
     }
 
+    /**
+     * Map a file stored in the disk in memory, without reading it on the heap
+     * @param path (String) - Relative or Absolute path to the file
+     * @return (MappedByteBuffer) - Read-only view of the file content
+     */
+    public static MappedByteBuffer map(String path) {
+        try(var channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)){
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e){
+            return fail("An error occurred while trying to map : \"%s\"%n", path);
+        }
+    }
+
     /**
      * Write a file to the disk. This function writes to the folder called "res/"
      * @param path (String) - Relative or Absolute path to the file
@@ -160,9 +213,7 @@ public final class Helper {
     public static void write(String path, byte[] content){
         var abs_path = res_folder + File.separator + path;
         try(var output = new FileOutputStream(abs_path)){
-            for (var b : content){
-                output.write(b);
-            }
+            output.write(content);
         }catch (IOException e){
             fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
         }
@@ -185,4 +236,31 @@ public final class Helper {
         throw new RuntimeException(String.format(fmt, params));
     }
 
+    /**
+     * Wait for the given tasks and collect their results.
+     * An Error thrown by a task is thrown again as is, any other failure makes the program fail
+     * @param futures (List<Future<T>>) - Tasks to wait for
+     * @param tasks (String) - What the tasks process, like "stripes", for the error messages
+     * @return (List<T>) - Results of the tasks, in the same order
+     * @param <T> - Type of the results
+     * @throws RuntimeException if a task failed or the thread was interrupted while waiting
+     */
+    public static <T> List<T> await(List<Future<T>> futures, String tasks){
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures){
+                results.add(future.get());
+            }
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof Error error){
+                throw error;
+            }
+            return fail("One of the %s could not be processed : %s", tasks, e.getCause());
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return fail("Interrupted while waiting for the %s", tasks);
+        }
+        return results;
+    }
+
 }
\ No newline at end of file
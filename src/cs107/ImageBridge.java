@@ -0,0 +1,123 @@
+package cs107;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+
+/**
+ * Conversions between the images of the JDK (BufferedImage) and packed images.
+ * The common image types are converted in bulk straight from and to the arrays behind
+ * their raster, without going through the color model for every pixel like
+ * BufferedImage::getRGB and BufferedImage::setRGB do.
+ * The other types use a single bulk call to BufferedImage::getRGB.
+ */
+public final class ImageBridge {
+
+    /**
+     * Not instantiable
+     */
+    private ImageBridge(){}
+
+    // ==================================================================================
+    // ============================== BUFFERED IMAGE TO PACKED ==========================
+    // ==================================================================================
+
+    /**
+     * Convert a BufferedImage to a packed image, with the same pixels as BufferedImage::getRGB
+     * @param image (BufferedImage) - Image to convert
+     * @return (PackedImage) - The corresponding packed image, in the sRGB color space
+     * @throws AssertionError if the image is null
+     */
+    public static PackedImage toPackedImage(BufferedImage image){
+        assert image != null;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte channels = image.getColorModel().hasAlpha() ? QOISpecification.RGBA : QOISpecification.RGB;
+        PackedImage packed = PackedImage.allocate(width, height, channels, QOISpecification.sRGB);
+        int[] pixels = packed.data();
+
+        Raster raster = image.getRaster();
+        boolean plain = raster.getParent() == null && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+        switch (plain ? image.getType() : BufferedImage.TYPE_CUSTOM){
+            case BufferedImage.TYPE_INT_ARGB -> System.arraycopy(ints(raster), 0, pixels, 0, pixels.length);
+            case BufferedImage.TYPE_INT_RGB -> {
+                int[] data = ints(raster);
+                for (int i = 0; i < pixels.length; ++i){
+                    pixels[i] = 0xFF000000 | data[i];
+                }
+            }
+            case BufferedImage.TYPE_INT_BGR -> {
+                int[] data = ints(raster);
+                for (int i = 0; i < pixels.length; ++i){
+                    int bgr = data[i];
+                    pixels[i] = 0xFF000000 | (bgr & 0xFF) << 16 | (bgr & 0xFF00) | (bgr >>> 16 & 0xFF);
+                }
+            }
+            case BufferedImage.TYPE_3BYTE_BGR -> {
+                byte[] data = bytes(raster);
+                for (int i = 0, j = 0; i < pixels.length; ++i, j += 3){
+                    pixels[i] = 0xFF000000 | (data[j + 2] & 0xFF) << 16 | (data[j + 1] & 0xFF) << 8 | (data[j] & 0xFF);
+                }
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR -> {
+                byte[] data = bytes(raster);
+                for (int i = 0, j = 0; i < pixels.length; ++i, j += 4){
+                    pixels[i] = (data[j] & 0xFF) << 24 | (data[j + 3] & 0xFF) << 16 | (data[j + 2] & 0xFF) << 8 | (data[j + 1] & 0xFF);
+                }
+            }
+            default -> image.getRGB(0, 0, width, height, pixels, 0, width);
+        }
+        return packed;
+    }
+
+    // ==================================================================================
+    // ============================== PACKED TO BUFFERED IMAGE ==========================
+    // ==================================================================================
+
+    /**
+     * Convert a packed image to a BufferedImage. The ARGB pixels are copied as they are
+     * in the raster of a TYPE_INT_ARGB image, or of a TYPE_INT_RGB image if the image has 3 channels
+     * @param image (PackedImage) - Image to convert
+     * @return (BufferedImage) - The corresponding BufferedImage
+     * @throws AssertionError if the image is null
+     */
+    public static BufferedImage toBufferedImage(PackedImage image){
+        assert image != null;
+        return toBufferedImage(image.data(), image.width(), image.height(), image.channels());
+    }
+
+    /**
+     * Convert ARGB pixels to a BufferedImage, for example the pixels decoded in a QOICodecContext
+     * @param data (int[]) - ARGB pixels, row after row, from index 0
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @return (BufferedImage) - The corresponding BufferedImage
+     * @throws AssertionError if the data is null or smaller than the image
+     */
+    public static BufferedImage toBufferedImage(int[] data, int width, int height, byte channels){
+        assert data != null && data.length >= (long) width * height;
+        int type = switch (channels){
+            case QOISpecification.RGB -> BufferedImage.TYPE_INT_RGB;
+            case QOISpecification.RGBA -> BufferedImage.TYPE_INT_ARGB;
+            default -> Helper.fail("Cannot convert this image, channels == %d", channels);
+        };
+        BufferedImage buffer = new BufferedImage(width, height, type);
+        System.arraycopy(data, 0, ints(buffer.getRaster()), 0, width * height);
+        return buffer;
+    }
+
+    // ==================================================================================
+    // ==================================== UTILITIES ===================================
+    // ==================================================================================
+
+    private static int[] ints(Raster raster){
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
+    private static byte[] bytes(Raster raster){
+        return ((DataBufferByte) raster.getDataBuffer()).getData();
+    }
+
+}
@@ -0,0 +1,76 @@
+package cs107;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies. The latencies are counted in buckets of
+ * growing size : the bucket k holds the latencies between 2^(k-1) and 2^k microseconds,
+ * so the percentiles are given with a precision of a factor 2 at most.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(2); // count, sum of the latencies in ns
+    private volatile long max;
+
+    /**
+     * Count a latency
+     * @param nanos (long) - Latency, in nanoseconds
+     */
+    public void record(long nanos){
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        totals.incrementAndGet(0);
+        totals.addAndGet(1, nanos);
+        if (nanos > max){
+            synchronized (this){
+                max = Math.max(max, nanos);
+            }
+        }
+    }
+
+    /**
+     * @return (long) - Number of counted latencies
+     */
+    public long count(){
+        return totals.get(0);
+    }
+
+    /**
+     * Upper bound of the given percentile
+     * @param percentile (double) - Percentile, between 0 and 100
+     * @return (double) - Upper bound of the bucket holding the percentile, in milliseconds
+     */
+    public double percentile(double percentile){
+        assert 0 <= percentile && percentile <= 100;
+        long total = 0;
+        for (int k = 0; k < BUCKETS; ++k){
+            total += counts.get(k);
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int k = 0; k < BUCKETS; ++k){
+            seen += counts.get(k);
+            if (seen >= rank && seen > 0){
+                return Math.min((1L << k) / 1e3, max / 1e6);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Summary of the histogram : count, mean, p50, p90, p99 and max
+     * @return (String) - The summary, the latencies are in milliseconds
+     */
+    @Override
+    public String toString(){
+        long count = count();
+        double mean = count == 0 ? 0 : totals.get(1) / 1e6 / count;
+        return String.format("count %d, mean %.3f ms, p50 <= %.3f ms, p90 <= %.3f ms, p99 <= %.3f ms, max %.3f ms",
+                count, mean, percentile(50), percentile(90), percentile(99), max / 1e6);
+    }
+
+}
@@ -0,0 +1,81 @@
+package cs107;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator of the QOIServer : every worker sends the same file to the endpoint
+ * in a closed loop for the given duration, then the throughput and the latencies are printed.
+ * @apiNote Usage : LoadGenerator url file [concurrency] [seconds]
+ */
+public final class LoadGenerator {
+
+    /**
+     * Not instantiable
+     */
+    private LoadGenerator(){}
+
+    /**
+     * Main entry point of the load generator
+     * @param args (String[]) - Arguments passed to the program via the command line
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2){
+            System.err.println("Usage : LoadGenerator url file [concurrency] [seconds]");
+            return;
+        }
+        URI uri = URI.create(args[0]);
+        byte[] body = Files.readAllBytes(Path.of(args[1]));
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong received = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+
+        List<Thread> workers = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; ++i){
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < deadline){
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                        if (response.statusCode() != 200){
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        received.addAndGet(response.body().length);
+                        latency.record(System.nanoTime() - start);
+                    } catch (IOException e){
+                        errors.incrementAndGet();
+                    } catch (InterruptedException e){
+                        return;
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers){
+            worker.join();
+        }
+
+        long count = latency.count();
+        System.out.printf("%d requests (%d failed) in %.1f s : %.1f req/s, %.1f MB/s sent, %.1f MB/s received%n",
+                count + errors.get(), errors.get(), seconds, count / seconds,
+                count * (double) body.length / 1e6 / seconds, received.get() / 1e6 / seconds);
+        System.out.println("latency : " + latency);
+    }
+
+}
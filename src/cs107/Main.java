@@ -1,6 +1,24 @@
 package cs107;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Main entry point of the program.
@@ -59,6 +77,7 @@ public final class Main {
         assert testQoiOpLuma();
         assert testQoiOpRun();
         assert testEncodeData();
+        assert testChunkEncoder();
         qoiToPng("mini_projet_1/references/dice.qoi","truc.png");
         //Diff.diff("mini_projet_1/references/qoi_op_index.png","res/truc.png");
         //Diff.diff("mini_projet_1/references/qoi_op_run.qoi","res/truc.qoi");
@@ -71,6 +90,28 @@ public final class Main {
         assert testDecodeQoiOpLuma();
         assert testDecodeQoiOpRun();
         assert testDecodeData();
+        assert testChunkDecoder();
+        assert testPackedImage();
+        assert testQOIWriter();
+        assert testQOIReader();
+        assert testMappedDecoding();
+        assert testStripes();
+        assert testRestartIndex();
+        assert testImageBridge();
+        assert testCodecContext();
+        assert testByteBufferCodec();
+        assert testRunLength();
+        assert testSwizzle();
+        assert testPackedHash();
+        assert testStats();
+        assert testThumbnail();
+        assert testRegion();
+        assert testTiles();
+        assert testImageCache();
+        assert testEncodeCache();
+        assert testProbe();
+        assert testBatchConverter();
+        assert testServer();
 
         System.out.println("All the tests passes. Congratulations!!!!!!!!!!");
     }
@@ -84,7 +125,7 @@ public final class Main {
      */
     public static void pngToQoi(String inputFile, String outputFile){
         // Read a PNG file
-        var inputImage = Helper.readImage(inputFile);
+        var inputImage = Helper.readPackedImage(inputFile);
         // Encode the Image to QOI
         var outputFileContent = QOIEncoder.qoiFile(inputImage);
         // Write in binary mode the file content to 'output_file'
@@ -100,9 +141,9 @@ public final class Main {
         // Read in binary mode the file 'input_file'
         var inputFileContent = Helper.read(inputFile);
         // Decode the file using the 'QOI' decoder
-        var computedImage = QOIDecoder.decodeQoiFile(inputFileContent);
+        var computedImage = QOIDecoder.decodePackedQoiFile(inputFileContent);
         // Write an image to 'output_file'
-        Helper.writeImage(outputFile, computedImage);
+        Helper.writePackedImage(outputFile, computedImage);
     }
 
     /**
@@ -274,6 +315,18 @@ public final class Main {
         return Arrays.equals(expected, encoding);
     }
 
+    @SuppressWarnings("unused")
+    private static boolean testChunkEncoder(){
+        int[] pixels = {0xFF000000, 0xFF000000, 0xFF000000, 0xFF00FF00, 0xFFEEECEE, 0xFF000000, 0xFF646464, 0x5A5A5A5A};
+        byte[] expected = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        byte[] output = new byte[pixels.length * QOIChunkEncoder.MAX_CHUNK_SIZE + 1];
+        QOIChunkEncoder encoder = new QOIChunkEncoder();
+        int length = encoder.encode(pixels, 0, 3, output, 0);
+        length = encoder.encode(pixels, 3, pixels.length, output, length);
+        length = encoder.flush(output, length);
+        return Arrays.equals(expected, Arrays.copyOf(output, length));
+    }
+
     // ============================================================================================
     // ============================== QOIDecoder examples =========================================
     // ============================================================================================
@@ -345,4 +398,685 @@ public final class Main {
         return Arrays.deepEquals(expected, QOIDecoder.decodeData(encoding, 4, 2));
     }
 
-}
\ No newline at end of file
+    @SuppressWarnings("unused")
+    private static boolean testChunkDecoder(){
+        byte[] encoding = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        int[] expected = {0xFF000000, 0xFF000000, 0xFF000000, 0xFF00FF00, 0xFFEEECEE, 0xFF000000, 0xFF646464, 0x5A5A5A5A};
+        int[] pixels = new int[expected.length];
+        QOIChunkDecoder decoder = new QOIChunkDecoder();
+        // The first call stops in the middle of the run, the second one before the incomplete QOI_OP_RGB
+        int decoded = decoder.decode(encoding, 0, encoding.length, pixels, 0, 2);
+        decoded = decoder.decode(encoding, decoder.position(), 8, pixels, decoded, pixels.length);
+        boolean stopped = decoded == 6 && decoder.position() == 6;
+        decoded = decoder.decode(encoding, decoder.position(), encoding.length, pixels, decoded, pixels.length);
+        return stopped && decoded == pixels.length && decoder.position() == encoding.length && Arrays.equals(expected, pixels);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testPackedImage(){
+        Helper.Image image = Helper.generateImage(new int[][]{{0xFF000000, 0xFF00FF00, 0xFFEEECEE}, {0xFF000000, 0xFF646464, 0x5A5A5A5A}},
+                QOISpecification.RGBA, QOISpecification.sRGB);
+        PackedImage packed = PackedImage.fromImage(image);
+        byte[] file = QOIEncoder.qoiFile(packed);
+        return packed.get(1, 1) == 0xFF646464 && packed.row(1).get(2) == 0x5A5A5A5A
+                && Arrays.equals(file, QOIEncoder.qoiFile(image))
+                && QOIDecoder.decodePackedQoiFile(file).equals(packed)
+                && packed.toImage().equals(image);
+    }
+
+    // Small image mixing runs, small differences, and alpha changes
+    private static int[][] streamedRows(){
+        int[][] rows = new int[40][30];
+        for (int y = 0; y < rows.length; ++y){
+            for (int x = 0; x < rows[y].length; ++x){
+                rows[y][x] = x / 7 == 2 ? 0xFF102030 : (y % 5 == 0 ? 0x80000000 : 0xFF000000) | (x * 31 + y * 17) << 8 | (x ^ y);
+            }
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testQOIWriter(){
+        int[][] rows = streamedRows();
+        Helper.Image image = Helper.generateImage(rows, QOISpecification.RGBA, QOISpecification.sRGB);
+        var output = new ByteArrayOutputStream();
+        try (var writer = new QOIWriter(output, 30, 40, QOISpecification.RGBA, QOISpecification.sRGB, 0)){
+            for (int[] row : rows){
+                writer.writeRow(row);
+            }
+        } catch (IOException e){
+            return false;
+        }
+        return Arrays.equals(output.toByteArray(), QOIEncoder.qoiFile(image));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testQOIReader(){
+        int[][] rows = streamedRows();
+        byte[] file = QOIEncoder.qoiFile(Helper.generateImage(rows, QOISpecification.RGBA, QOISpecification.sRGB));
+        try (var reader = new QOIReader(new ByteArrayInputStream(file), 0)){
+            if (reader.width() != 30 || reader.height() != 40 || reader.channels() != QOISpecification.RGBA){
+                return false;
+            }
+            int[] row = new int[reader.width()];
+            for (int[] expected : rows){
+                if (!reader.readRow(row) || !Arrays.equals(expected, row)){
+                    return false;
+                }
+            }
+            return !reader.readRow(row);
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testMappedDecoding(){
+        PackedImage image = PackedImage.fromImage(Helper.generateImage(streamedRows(), QOISpecification.RGBA, QOISpecification.sRGB));
+        Helper.write("mapped.qoi", QOIEncoder.qoiFile(image));
+        return QOIDecoder.decodePackedQoiFile(Helper.map("res/mapped.qoi")).equals(image);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStripes(){
+        PackedImage image = PackedImage.fromImage(Helper.generateImage(streamedRows(), QOISpecification.RGBA, QOISpecification.sRGB));
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            byte[] striped = QOIStripes.encode(image, 7, pool);
+            return QOIStripes.decode(striped, pool).equals(image) && QOIStripes.decode(QOIStripes.encode(image)).equals(image);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testRestartIndex(){
+        // Runs of 75 pixels, longer than a QOI_OP_RUN chunk and crossing the rows
+        PackedImage image = PackedImage.allocate(10, 40, QOISpecification.RGB, QOISpecification.sRGB);
+        for (int i = 0; i < image.data().length; ++i){
+            image.data()[i] = 0xFF000000 | (i / 75) * 0x010203;
+        }
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            QOIRestartIndex.Indexed indexed = QOIRestartIndex.encode(image, 3);
+            byte[] sidecar = indexed.index().toBytes();
+            QOIRestartIndex index = QOIRestartIndex.fromBytes(sidecar, indexed.file().length);
+            if (!Arrays.equals(indexed.file(), QOIEncoder.qoiFile(image)) || index.points().length <= 1
+                    || !index.decode(indexed.file(), pool).equals(image)){
+                return false;
+            }
+            // The offset of the second restart point goes back before the first one
+            ByteBuffer.wrap(sidecar).putInt(20 + 67 * 4, 0);
+            try {
+                QOIRestartIndex.fromBytes(sidecar, indexed.file().length);
+                return false;
+            } catch (RuntimeException e){
+                return true;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testImageBridge(){
+        int[] types = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_USHORT_565_RGB};
+        int[][] rows = streamedRows();
+        for (int type : types){
+            BufferedImage buffer = new BufferedImage(rows[0].length, rows.length, type);
+            for (int y = 0; y < rows.length; ++y){
+                buffer.setRGB(0, y, rows[0].length, 1, rows[y], 0, rows[0].length);
+            }
+            PackedImage packed = ImageBridge.toPackedImage(buffer);
+            for (int y = 0; y < rows.length; ++y){
+                for (int x = 0; x < rows[y].length; ++x){
+                    if (packed.get(x, y) != buffer.getRGB(x, y)){
+                        return false;
+                    }
+                }
+            }
+        }
+        PackedImage image = PackedImage.fromImage(Helper.generateImage(rows, QOISpecification.RGBA, QOISpecification.sRGB));
+        return ImageBridge.toPackedImage(ImageBridge.toBufferedImage(image)).equals(image);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testCodecContext(){
+        PackedImage large = PackedImage.fromImage(Helper.generateImage(streamedRows(), QOISpecification.RGBA, QOISpecification.sRGB));
+        PackedImage small = PackedImage.allocate(3, 2, QOISpecification.RGB, QOISpecification.ALL);
+        QOICodecContext context = new QOICodecContext();
+        for (PackedImage image : new PackedImage[]{large, small, large}){
+            byte[] expected = QOIEncoder.qoiFile(image);
+            int size = context.encode(image);
+            if (!Arrays.equals(expected, Arrays.copyOf(context.output(), size))){
+                return false;
+            }
+            if (context.decode(expected) != image.data().length || !context.decodedImage().equals(image)){
+                return false;
+            }
+        }
+        // The buffers of the large image are kept for the smaller ones
+        return context.pixels().length == large.data().length;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testByteBufferCodec(){
+        PackedImage image = PackedImage.fromImage(Helper.generateImage(streamedRows(), QOISpecification.RGBA, QOISpecification.sRGB));
+        byte[] expected = QOIEncoder.qoiFile(image);
+        int size = image.data().length;
+        // Off-heap pixels and chunks, not starting at index 0
+        IntBuffer pixels = ByteBuffer.allocateDirect((size + 2) * 4).asIntBuffer();
+        pixels.position(2);
+        pixels.put(image.data()).position(2);
+        ByteBuffer file = ByteBuffer.allocateDirect(QOIChunkEncoder.maxFileSize(image.width(), image.height()) + 3);
+        file.position(3);
+        int length = QOIEncoder.qoiFile(pixels, image.width(), image.height(), image.channels(), image.color_space(), file);
+        byte[] written = new byte[length];
+        file.get(3, written);
+        if (length != expected.length || !Arrays.equals(written, expected) || pixels.position() != size + 2){
+            return false;
+        }
+        file.flip().position(3);
+        IntBuffer decoded = ByteBuffer.allocateDirect((size + 1) * 4).asIntBuffer();
+        decoded.position(1);
+        int[] header = QOIDecoder.decodeQoiFile(file, decoded);
+        int[] copy = new int[size];
+        decoded.get(1, copy);
+        // Heap buffers go through the array paths
+        ByteBuffer heap = ByteBuffer.allocate(QOIChunkEncoder.maxFileSize(image.width(), image.height()));
+        QOIEncoder.qoiFile(image, heap);
+        int[] heapPixels = new int[size];
+        QOIDecoder.decodeQoiFile(heap.flip(), IntBuffer.wrap(heapPixels));
+        return header[0] == image.width() && header[1] == image.height() && !file.hasRemaining()
+                && Arrays.equals(copy, image.data()) && Arrays.equals(heapPixels, image.data());
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testRunLength(){
+        int[] pixels = new int[300];
+        Arrays.fill(pixels, 0, 130, 0xFF000000);
+        Arrays.fill(pixels, 131, 300, 0xFF123456);
+        for (int[] run : new int[][]{{0, 300, 130}, {5, 300, 125}, {129, 300, 1}, {130, 300, 1}, {131, 300, 169}, {131, 140, 9}, {299, 300, 1}}){
+            if (QOIChunkEncoder.runLength(pixels, run[0], run[1]) != run[2] || QOIChunkEncoder.runLengthScalar(pixels, run[0], run[1]) != run[2]){
+                return false;
+            }
+        }
+        // Runs longer than a QOI_OP_RUN chunk, starting with the start pixel : 2 full chunks and 6 pixels
+        byte[] output = new byte[16];
+        QOIChunkEncoder encoder = new QOIChunkEncoder();
+        int position = encoder.flush(output, encoder.encode(pixels, 0, 130, output, 0));
+        byte[] expected = {(byte) 0b11_111101, (byte) 0b11_111101, (byte) 0b11_000101};
+        return Arrays.equals(Arrays.copyOf(output, position), expected);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testSwizzle(){
+        int[] argb = {0x80112233, 0xFF000000, 0x00FFFFFF, 0x7F010203, 0xC0A0B0D0, 0x12345678, 0xFEDCBA98};
+        byte[] expected = {0x11, 0x22, 0x33, (byte) 0x80, 0, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0,
+                1, 2, 3, 0x7F, (byte) 0xA0, (byte) 0xB0, (byte) 0xD0, (byte) 0xC0, 0x34, 0x56, 0x78, 0x12,
+                (byte) 0xDC, (byte) 0xBA, (byte) 0x98, (byte) 0xFE};
+        byte[] rgba = ArrayUtils.argbToRgba(argb);
+        // Parts of the arrays, to cover the unrolled loop and its tail
+        byte[] shifted = new byte[rgba.length + 2];
+        ArrayUtils.argbToRgba(argb, 1, shifted, 2, 6);
+        int[] back = new int[argb.length];
+        ArrayUtils.rgbaToArgb(shifted, 2, back, 1, 6);
+        back[0] = argb[0];
+        return Arrays.equals(rgba, expected) && Arrays.equals(ArrayUtils.rgbaToArgb(rgba), argb) && Arrays.equals(back, argb)
+                && Arrays.deepEquals(ArrayUtils.imageToChannels(new int[][]{argb}), ArrayUtils.partition(rgba, 4, 4, 4, 4, 4, 4, 4));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testPackedHash(){
+        // Every value of every channel, the other channels being set to a varying value
+        for (int v = 0; v < 256; ++v){
+            for (int shift = 0; shift < 32; shift += 8){
+                int argb = (0x9A3C5EF1 & ~(0xFF << shift)) | v << shift;
+                byte[] pixel = {(byte) (argb >> 16), (byte) (argb >> 8), (byte) argb, (byte) (argb >>> 24)};
+                // The formula of the specification, on signed bytes like the original QOISpecification::hash
+                int expected = Math.floorMod(pixel[0] * 3 + pixel[1] * 5 + pixel[2] * 7 + pixel[3] * 11, 64);
+                if (QOISpecification.hash(argb) != expected || QOISpecification.hash(pixel) != expected
+                        || QOISpecification.hash(pixel[0], pixel[1], pixel[2], pixel[3]) != expected){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStats(){
+        // A run of 70 pixels (2 QOI_OP_RUN chunks), then QOI_OP_RGB, QOI_OP_RGBA and QOI_OP_INDEX
+        int[] pixels = new int[74];
+        Arrays.fill(pixels, 0, 70, 0xFF000000);
+        pixels[70] = 0xFF102030;
+        pixels[71] = 0x80102030;
+        pixels[72] = 0xFF102030;
+        pixels[73] = 0xFF102030 + 1;
+        PackedImage image = new PackedImage(pixels, 74, 1, QOISpecification.RGBA, QOISpecification.sRGB);
+        byte[] file = new byte[QOIChunkEncoder.maxFileSize(74, 1)];
+        QOIStats encoded = new QOIStats();
+        int length = QOIEncoder.qoiFile(image, file, encoded);
+        QOIStats decoded = new QOIStats();
+        QOIDecoder.decodeQoiPixels(Arrays.copyOf(file, length), null, decoded);
+        long[] runs = encoded.runHistogram();
+        boolean counted = encoded.images() == 1 && encoded.pixels() == 74 && encoded.count(QOIStats.Op.RUN) == 2
+                && encoded.count(QOIStats.Op.RGB) == 1 && encoded.count(QOIStats.Op.RGBA) == 1
+                && encoded.count(QOIStats.Op.INDEX) == 1 && encoded.count(QOIStats.Op.DIFF) == 1
+                && encoded.count(QOIStats.Op.LUMA) == 0 && runs[6] == 1 && Arrays.stream(runs).sum() == 1
+                && encoded.chunkBytes() == length - QOISpecification.HEADER_SIZE - QOISpecification.QOI_EOF.length;
+        if (!counted){
+            return false;
+        }
+        for (QOIStats.Op op : QOIStats.Op.values()){
+            if (decoded.count(op) != encoded.count(op)){
+                return false;
+            }
+        }
+        encoded.add(decoded);
+        if (encoded.images() != 2 || encoded.count(QOIStats.Op.RUN) != 4){
+            return false;
+        }
+        // A QOI_OP_RGB chunk cut by the limit : the chunk stream is truncated
+        try {
+            new QOIStats().count(1, QOISpecification.RGB, new byte[]{QOISpecification.QOI_OP_RGB_TAG, 0}, 0, 2);
+            return false;
+        } catch (RuntimeException e){
+            return true;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testThumbnail(){
+        // Dimensions that are not multiples of the factors, runs crossing the rows and random pixels
+        int width = 37, height = 23;
+        PackedImage image = PackedImage.allocate(width, height, QOISpecification.RGBA, QOISpecification.sRGB);
+        Random random = new Random(107);
+        for (int i = 0; i < image.data().length; ++i){
+            image.data()[i] = i % 50 < 20 ? 0xFF336699 : random.nextInt();
+        }
+        byte[] file = QOIEncoder.qoiFile(image);
+        PackedImage box = QOIThumbnail.decode(file, 7);
+        ByteBuffer direct = ByteBuffer.allocateDirect(file.length).put(file);
+        PackedImage[] levels = QOIThumbnail.decode(direct, new int[]{1, 4}, QOIThumbnail.Filter.NEAREST);
+        if (box.width() != 6 || box.height() != 4 || box.channels() != QOISpecification.RGBA
+                || !Arrays.equals(levels[0].data(), image.data()) || levels[1].width() != 10 || levels[1].height() != 6){
+            return false;
+        }
+        for (int y = 0; y < levels[1].height(); ++y){
+            for (int x = 0; x < levels[1].width(); ++x){
+                if (levels[1].data()[y * levels[1].width() + x] != image.data()[y * 4 * width + x * 4]){
+                    return false;
+                }
+            }
+        }
+        for (int y = 0; y < box.height(); ++y){
+            for (int x = 0; x < box.width(); ++x){
+                // Mean of every channel over the block, rounded to the nearest value
+                int[] sums = new int[4];
+                int count = 0;
+                for (int by = y * 7; by < Math.min(y * 7 + 7, height); ++by){
+                    for (int bx = x * 7; bx < Math.min(x * 7 + 7, width); ++bx, ++count){
+                        for (int c = 0; c < 4; ++c){
+                            sums[c] += image.data()[by * width + bx] >>> (24 - 8 * c) & 0xFF;
+                        }
+                    }
+                }
+                int expected = 0;
+                for (int c = 0; c < 4; ++c){
+                    expected |= (sums[c] + count / 2) / count << (24 - 8 * c);
+                }
+                if (box.data()[y * box.width() + x] != expected){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testRegion(){
+        // Runs crossing the rows and the edges of the rectangles, and random pixels
+        int width = 41, height = 29;
+        PackedImage image = PackedImage.allocate(width, height, QOISpecification.RGBA, QOISpecification.sRGB);
+        Random random = new Random(107);
+        for (int i = 0; i < image.data().length; ++i){
+            image.data()[i] = i % 90 < 45 ? 0xFF336699 : random.nextInt();
+        }
+        QOIRestartIndex.Indexed indexed = QOIRestartIndex.encode(image, 5);
+        byte[] file = indexed.file();
+        ByteBuffer direct = ByteBuffer.allocateDirect(file.length).put(file);
+        int[][] rectangles = {{0, 0, width, height}, {0, 0, 1, 1}, {40, 28, 1, 1}, {3, 7, 20, 11}, {0, 12, 41, 3}, {39, 0, 2, 29}};
+        for (int[] r : rectangles){
+            int[] expected = new int[r[2] * r[3]];
+            for (int row = 0; row < r[3]; ++row){
+                System.arraycopy(image.data(), (r[1] + row) * width + r[0], expected, row * r[2], r[2]);
+            }
+            PackedImage region = QOIDecoder.decodeRegion(file, r[0], r[1], r[2], r[3]);
+            if (region.width() != r[2] || region.height() != r[3] || !Arrays.equals(region.data(), expected)
+                    || !Arrays.equals(QOIDecoder.decodeRegion(direct, r[0], r[1], r[2], r[3]).data(), expected)
+                    || !Arrays.equals(indexed.index().decodeRegion(file, r[0], r[1], r[2], r[3]).data(), expected)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testTiles(){
+        // Tiles of the last column and row smaller than the others, runs crossing the rows of the tiles
+        int width = 41, height = 29;
+        PackedImage image = PackedImage.allocate(width, height, QOISpecification.RGBA, QOISpecification.sRGB);
+        Random random = new Random(107);
+        for (int i = 0; i < image.data().length; ++i){
+            image.data()[i] = i % 90 < 45 ? 0xFF336699 : random.nextInt();
+        }
+        byte[] file = QOITiles.encode(image, 8, 6, ForkJoinPool.commonPool());
+        if (!Arrays.equals(QOITiles.decode(file).data(), image.data())){
+            return false;
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(file.length).put(file);
+        try (QOITiles.Reader reader = new QOITiles.Reader(direct)){
+            PackedImage corner = reader.tile(5, 4);
+            int[] expected = new int[corner.width() * corner.height()];
+            for (int row = 0; row < corner.height(); ++row){
+                System.arraycopy(image.data(), (24 + row) * width + 40, expected, row * corner.width(), corner.width());
+            }
+            if (reader.columns() != 6 || reader.rows() != 5 || corner.width() != 1 || corner.height() != 5
+                    || !Arrays.equals(corner.data(), expected)){
+                return false;
+            }
+            // A rectangle intersecting 4 x 3 tiles, starting and ending in the middle of tiles
+            PackedImage region = reader.region(3, 5, 27, 13, ForkJoinPool.commonPool());
+            expected = new int[27 * 13];
+            for (int row = 0; row < 13; ++row){
+                System.arraycopy(image.data(), (5 + row) * width + 3, expected, row * 27, 27);
+            }
+            return Arrays.equals(region.data(), expected);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testImageCache(){
+        // Room for two images of 10 x 10 pixels, in a single segment to know the least recently used one
+        QOIImageCache cache = new QOIImageCache(2 * 10 * 10 * 4, 1);
+        byte[][] files = new byte[3][];
+        for (int k = 0; k < files.length; ++k){
+            PackedImage image = PackedImage.allocate(10, 10, QOISpecification.RGBA, QOISpecification.sRGB);
+            Arrays.fill(image.data(), 0xFF000000 | k);
+            files[k] = QOIEncoder.qoiFile(image);
+        }
+        PackedImage first = cache.get(files[0]);
+        boolean cached = cache.get(files[0]) == first && cache.get(files[0].clone()) == first;
+        cache.get(files[1]);
+        cache.get(files[0]);
+        // The third image evicts the second one, the least recently used
+        cache.get(files[2]);
+        boolean evicted = cache.get(files[0]) == first && cache.evictions() == 1 && cache.used() == cache.budget();
+        cache.get(files[1]);
+        if (!cached || !evicted || cache.loads() != 4 || cache.hits() != 4 || cache.misses() != 4 || first.data()[0] != 0xFF000000){
+            return false;
+        }
+
+        // Threads missing the same key at the same time : a single one decodes it
+        AtomicInteger decodings = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        PackedImage[] results = new PackedImage[threads.length];
+        for (int t = 0; t < threads.length; ++t){
+            int index = t;
+            threads[t] = new Thread(() -> results[index] = cache.get("shared", () -> {
+                decodings.incrementAndGet();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+                return PackedImage.allocate(1, 1, QOISpecification.RGBA, QOISpecification.sRGB);
+            }));
+            threads[t].start();
+        }
+        try {
+            for (Thread thread : threads){
+                thread.join();
+            }
+        } catch (InterruptedException e){
+            return false;
+        }
+        if (decodings.get() != 1 || results[0] == null || !Arrays.stream(results).allMatch(image -> image == results[0])){
+            return false;
+        }
+
+        // A load that outlives a clear of the cache is not cached, a loader returning null fails its load
+        PackedImage pixel = PackedImage.allocate(1, 1, QOISpecification.RGBA, QOISpecification.sRGB);
+        long loads = cache.loads();
+        cache.get("cleared", () -> {
+            cache.clear();
+            return pixel;
+        });
+        boolean dropped = cache.get("cleared", () -> pixel) == pixel && cache.loads() == loads + 2;
+        try {
+            cache.get("null", () -> null);
+            return false;
+        } catch (RuntimeException e){
+            return dropped && cache.get("null", () -> pixel) == pixel;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testEncodeCache(){
+        Path root = null;
+        try {
+            root = Files.createTempDirectory("qoi-cache");
+            byte[][] pngs = new byte[3][];
+            for (int k = 0; k < pngs.length; ++k){
+                PackedImage image = PackedImage.allocate(10, 10, QOISpecification.RGBA, QOISpecification.sRGB);
+                // Far from QOISpecification.START_PIXEL : the same chunks and the same size for every image
+                Arrays.fill(image.data(), 0xFF800000 | k);
+                ByteArrayOutputStream png = new ByteArrayOutputStream();
+                ImageIO.write(ImageBridge.toBufferedImage(image), "png", png);
+                pngs[k] = png.toByteArray();
+            }
+            byte[] expected = BatchConverter.pngToQoi(pngs[0]);
+            // Room for two entries
+            QOIEncodeCache cache = new QOIEncodeCache(root.resolve("store"), 2L * expected.length);
+            boolean encoded = Arrays.equals(cache.encode(pngs[0]), expected) && Arrays.equals(cache.encode(pngs[0].clone()), expected)
+                    && cache.hits() == 1 && cache.misses() == 1;
+            Path png = Files.write(root.resolve("input.png"), pngs[0]);
+            boolean copied = cache.convert(png, root.resolve("output.qoi")) && Arrays.equals(Files.readAllBytes(root.resolve("output.qoi")), expected);
+            // The third entry evicts the least recently used one, the copied file stays valid
+            cache.encode(pngs[1]);
+            cache.encode(pngs[2]);
+            boolean evicted = cache.evictions() == 1 && cache.size() == 2 && cache.lookup(ContentHash.of(pngs[0])) == null
+                    && Arrays.equals(Files.readAllBytes(root.resolve("output.qoi")), expected);
+            // A hit makes the older entry the most recently used one, also when the store is opened again
+            Thread.sleep(10);
+            cache.lookup(ContentHash.of(pngs[1]));
+            QOIEncodeCache reopened = new QOIEncodeCache(root.resolve("store"), 2L * expected.length);
+            boolean restored = reopened.size() == 2 && reopened.used() == cache.used();
+            reopened.encode(pngs[0]);
+            boolean reordered = reopened.lookup(ContentHash.of(pngs[1])) != null && reopened.lookup(ContentHash.of(pngs[2])) == null;
+
+            // A linked file written in place also writes its entry : the next hit becomes a miss and the entry is stored again
+            QOIEncodeCache linking = new QOIEncodeCache(root.resolve("links"), 2L * expected.length, true);
+            Path output = root.resolve("linked.qoi");
+            boolean linked = !linking.convert(png, output) && linking.convert(png, output)
+                    && Arrays.equals(Files.readAllBytes(output), expected);
+            // Truncated and written in place, like Helper::write does
+            Files.write(output, new byte[]{1, 2, 3});
+            boolean checked = Arrays.equals(linking.encode(pngs[0]), expected) && linking.misses() == 2 && linking.hits() == 1
+                    && Arrays.equals(linking.encode(pngs[0]), expected) && linking.hits() == 2;
+            return encoded && copied && evicted && restored && reordered && linked && checked;
+        } catch (IOException | InterruptedException e){
+            return false;
+        } finally {
+            delete(root);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testProbe(){
+        Path root = null;
+        try {
+            root = Files.createTempDirectory("qoi-probe");
+            PackedImage image = PackedImage.allocate(7, 5, QOISpecification.RGB, QOISpecification.ALL);
+            byte[] qoi = QOIEncoder.qoiFile(image);
+            Files.createDirectories(root.resolve("sub"));
+            Files.write(root.resolve("a.qoi"), qoi);
+            Files.write(root.resolve("sub").resolve("b.qoi"), Arrays.copyOf(qoi, qoi.length - 1));
+            Files.write(root.resolve("sub").resolve("c.qoi"), new byte[]{'q', 'o', 'i'});
+            Files.write(root.resolve("sub").resolve("d.png"), qoi);
+            byte[] magic = qoi.clone();
+            magic[3] = 'g';
+            Files.write(root.resolve("sub").resolve("e.qoi"), magic);
+
+            List<QOIProbe.Info> infos = QOIProbe.scan(root, 3);
+            QOIProbe.Info valid = infos.get(0);
+            return infos.size() == 4 && valid.valid() && valid.path().equals(root.resolve("a.qoi"))
+                    && valid.width() == 7 && valid.height() == 5 && valid.channels() == QOISpecification.RGB
+                    && valid.colorSpace() == QOISpecification.ALL && valid.size() == qoi.length
+                    && infos.stream().skip(1).noneMatch(QOIProbe.Info::valid)
+                    && infos.get(2).size() == 3;
+        } catch (IOException e){
+            return false;
+        } finally {
+            delete(root);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testBatchConverter(){
+        Path root = null;
+        try {
+            root = Files.createTempDirectory("qoi-batch");
+            PackedImage image = PackedImage.allocate(3, 2, QOISpecification.RGBA, QOISpecification.sRGB);
+            for (int i = 0; i < image.data().length; ++i){
+                image.data()[i] = 0xFF000000 | i * 0x102030;
+            }
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(ImageBridge.toBufferedImage(image), "png", png);
+            Path input = root.resolve("input");
+            Files.createDirectories(input.resolve("sub"));
+            Path a = Files.write(input.resolve("a.png"), png.toByteArray());
+            Files.write(input.resolve("sub").resolve("b.png"), png.toByteArray());
+            Files.write(input.resolve("sub").resolve("c.txt"), new byte[]{1});
+
+            // The files keep their path relative to the listed folder
+            List<BatchConverter.Input> files = BatchConverter.listFiles(List.of(input.toString()));
+            boolean listed = files.size() == 2 && files.get(0).relative().equals(Path.of("a.png"))
+                    && files.get(1).relative().equals(Path.of("sub", "b.png"));
+            Path output = root.resolve("output");
+            List<BatchConverter.Conversion> encoded = BatchConverter.convert(files, output, 2);
+            Path b = output.resolve("sub").resolve("b.qoi");
+            boolean mapped = encoded.stream().allMatch(c -> c.error() == null) && Files.isRegularFile(output.resolve("a.qoi"))
+                    && encoded.get(1).output().equals(b.toAbsolutePath().normalize());
+
+            // PNG -> QOI -> PNG keeps the pixels
+            List<BatchConverter.Conversion> decoded = BatchConverter.convert(BatchConverter.listFiles(List.of(b.toString())), root.resolve("round"), 1);
+            boolean roundTrip = decoded.get(0).error() == null
+                    && ImageBridge.toPackedImage(ImageIO.read(root.resolve("round").resolve("b.png").toFile())).equals(image);
+
+            // Two inputs mapped to the same output file : the second one fails
+            Files.createDirectories(root.resolve("other"));
+            Path other = Files.write(root.resolve("other").resolve("a.png"), png.toByteArray());
+            List<BatchConverter.Conversion> twice = BatchConverter.convert(BatchConverter.listFiles(List.of(a.toString(), other.toString())), output, 1);
+            boolean duplicate = twice.get(0).error() == null && twice.get(1).error() != null;
+
+            // In place, "x.png" and "x.qoi" would overwrite each other : both fail and stay untouched
+            Path same = root.resolve("same");
+            Files.createDirectories(same);
+            byte[] qoi = QOIEncoder.qoiFile(image);
+            Files.write(same.resolve("x.png"), png.toByteArray());
+            Files.write(same.resolve("x.qoi"), qoi);
+            List<BatchConverter.Conversion> collision = BatchConverter.convert(BatchConverter.listFiles(List.of(same.toString())), null, 1);
+            boolean collided = collision.size() == 2 && collision.stream().noneMatch(c -> c.error() == null)
+                    && Arrays.equals(Files.readAllBytes(same.resolve("x.png")), png.toByteArray())
+                    && Arrays.equals(Files.readAllBytes(same.resolve("x.qoi")), qoi);
+            return listed && mapped && roundTrip && duplicate && collided;
+        } catch (IOException e){
+            return false;
+        } finally {
+            delete(root);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testServer(){
+        byte[] qoi = Helper.read("mini_projet_1/references/dice.qoi");
+        // Room for the 640 x 480 pixels of the reference image, not one more
+        QOIServer server = QOIServer.start(0, 1 << 20, 640 * 480, 2);
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<byte[]> png = post(client, server, "/decode", qoi);
+            HttpResponse<byte[]> encoded = post(client, server, "/encode", png.body());
+            // The chunks may differ from the reference file, the pixels may not
+            boolean roundTrip = png.statusCode() == 200 && encoded.statusCode() == 200
+                    && QOIDecoder.decodePackedQoiFile(encoded.body()).equals(QOIDecoder.decodePackedQoiFile(qoi));
+
+            byte[] magic = qoi.clone();
+            magic[0] = 'x';
+            byte[] large = qoi.clone();
+            large[7] = (byte) 0x81;
+            ByteArrayOutputStream largePng = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(641, 480, BufferedImage.TYPE_INT_ARGB), "png", largePng);
+            boolean refused = post(client, server, "/decode", magic).statusCode() == 400
+                    && post(client, server, "/decode", Arrays.copyOf(qoi, qoi.length - 1)).statusCode() == 400
+                    && post(client, server, "/encode", new byte[]{1, 2, 3}).statusCode() == 415
+                    && post(client, server, "/decode", large).statusCode() == 413
+                    && post(client, server, "/encode", largePng.toByteArray()).statusCode() == 413;
+            // A refused body is not read : it must be small enough for the connection to be drained, not reset
+            QOIServer small = QOIServer.start(0, 16, 640 * 480, 1);
+            try {
+                refused &= post(client, small, "/decode", new byte[17]).statusCode() == 413;
+            } finally {
+                small.stop();
+            }
+
+            // 100 us falls in the bucket [64 us, 128 us[, 5 ms is the maximum
+            LatencyHistogram latency = new LatencyHistogram();
+            for (int i = 0; i < 100; ++i){
+                latency.record(i < 90 ? 100_000 : 5_000_000);
+            }
+            boolean percentiles = latency.count() == 100 && latency.percentile(50) == 0.128
+                    && latency.percentile(90) == 0.128 && latency.percentile(99) == 5.0;
+            return roundTrip && refused && percentiles;
+        } catch (IOException | InterruptedException e){
+            return false;
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Send a POST request to a server
+     * @param client (HttpClient) - Client sending the request
+     * @param server (QOIServer) - Server listening on the loopback address
+     * @param endpoint (String) - Path of the endpoint
+     * @param body (byte[]) - Body of the request
+     * @return (HttpResponse<byte[]>) - Response of the server
+     * @throws IOException if the request cannot be sent
+     * @throws InterruptedException if interrupted while waiting for the response
+     */
+    private static HttpResponse<byte[]> post(HttpClient client, QOIServer server, String endpoint, byte[] body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + endpoint))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Delete a folder and all its content
+     * @param folder (Path) - Folder to delete, null to delete nothing
+     */
+    private static void delete(Path folder){
+        if (folder == null){
+            return;
+        }
+        try (var walk = Files.walk(folder)){
+            walk.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e){
+            // Left in the temporary folder
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package cs107;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Record to store all the information of a given image in one contiguous array.
+ * Unlike {@link Helper.Image}, the rows are not separate objects: the pixel (x, y)
+ * is stored at index {@code y * width + x} of data.
+ * @param data (int[]) - ARGB stored pixels, row after row
+ * @param width (int) - width of the image
+ * @param height (int) - height of the image
+ * @param channels (byte) - number of channels
+ * @param color_space (byte) - color space
+ */
+public record PackedImage(int[] data, int width, int height, byte channels, byte color_space){
+
+    /**
+     * @throws AssertionError if the data is null or its length differs from width * height
+     */
+    public PackedImage{
+        assert data != null;
+        assert width > 0 && height > 0;
+        assert data.length == (long) width * height;
+    }
+
+    /**
+     * Create a new image full of transparent black pixels
+     * @param width (int) - width of the image
+     * @param height (int) - height of the image
+     * @param channels (byte) - number of channels
+     * @param colorSpace (byte) - color space
+     * @return (PackedImage) - The corresponding image
+     */
+    public static PackedImage allocate(int width, int height, byte channels, byte colorSpace){
+        return new PackedImage(new int[Math.multiplyExact(width, height)], width, height, channels, colorSpace);
+    }
+
+    // ==================================================================================
+    // ================================== ROW ACCESS ====================================
+    // ==================================================================================
+
+    /**
+     * Index in data of the first pixel of the given row
+     * @param y (int) - Index of the row
+     * @return (int) - Index in data
+     */
+    public int rowOffset(int y){
+        assert 0 <= y && y < height;
+        return y * width;
+    }
+
+    /**
+     * View of a row of the image. The view shares its content with the image
+     * @param y (int) - Index of the row
+     * @return (IntBuffer) - Buffer of width ARGB pixels, writes go through to the image
+     */
+    public IntBuffer row(int y){
+        return IntBuffer.wrap(data, rowOffset(y), width).slice();
+    }
+
+    /**
+     * ARGB value of the pixel at the given coordinates
+     * @param x (int) - Column of the pixel
+     * @param y (int) - Row of the pixel
+     * @return (int) - ARGB packed pixel
+     */
+    public int get(int x, int y){
+        assert 0 <= x && x < width;
+        return data[rowOffset(y) + x];
+    }
+
+    // ==================================================================================
+    // ================================== ADAPTERS ======================================
+    // ==================================================================================
+
+    /**
+     * Copy a {@link Helper.Image} in a new packed image
+     * @param image (Helper.Image) - Image to copy
+     * @return (PackedImage) - The corresponding packed image
+     * @throws AssertionError if the image is null
+     */
+    public static PackedImage fromImage(Helper.Image image){
+        assert image != null;
+        int[][] rows = image.data();
+        int width = rows[0].length;
+        PackedImage packed = allocate(width, rows.length, image.channels(), image.color_space());
+        for (int y = 0; y < rows.length; ++y){
+            System.arraycopy(rows[y], 0, packed.data, y * width, width);
+        }
+        return packed;
+    }
+
+    /**
+     * Copy this image in a new {@link Helper.Image}
+     * @return (Helper.Image) - The corresponding image
+     */
+    public Helper.Image toImage(){
+        int[][] rows = new int[height][];
+        for (int y = 0; y < height; ++y){
+            rows[y] = Arrays.copyOfRange(data, y * width, (y + 1) * width);
+        }
+        return Helper.generateImage(rows, channels, color_space);
+    }
+
+    // ==================================================================================
+    // ================================== EQUALITY ======================================
+    // ==================================================================================
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof PackedImage im){
+            return width == im.width && height == im.height && channels == im.channels
+                    && color_space == im.color_space && Arrays.equals(data, im.data);
+        }else
+            return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * width + height) + Arrays.hashCode(data);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PackedImage[width=%d, height=%d, channels=%d, color_space=%d]", width, height, channels, color_space);
+    }
+
+}
@@ -0,0 +1,386 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Allocation-free "Quite Ok Image" chunk decoder producing packed ARGB pixels.
+ * The decoder keeps the previous pixel, the 64-entry index and the remaining
+ * length of the current run as primitive state, so the chunk stream can be
+ * decoded in one call or in several calls over consecutive parts of the stream.
+ * @apiNote An instance is not thread-safe, use one decoder per image being decoded.
+ */
+public final class QOIChunkDecoder {
+
+    /**
+     * {@link QOISpecification#START_PIXEL} as an ARGB packed pixel
+     */
+    private static final int START_PIXEL = ArrayUtils.toInt(ArrayUtils.concat(
+            QOISpecification.START_PIXEL[QOISpecification.a], QOISpecification.START_PIXEL[QOISpecification.r],
+            QOISpecification.START_PIXEL[QOISpecification.g], QOISpecification.START_PIXEL[QOISpecification.b]));
+
+    // Kinds of chunks, indexed by their first byte in KIND
+    private static final byte OP_INDEX = 0, OP_DIFF = 1, OP_LUMA = 2, OP_RUN = 3, OP_RGB = 4, OP_RGBA = 5;
+
+    /**
+     * Kind of the chunk starting with a given byte
+     */
+    private static final byte[] KIND = new byte[256];
+
+    /**
+     * Size in bytes of the chunk starting with a given byte
+     */
+    private static final byte[] SIZE = new byte[256];
+
+    /**
+     * Value carried by the first byte of a chunk : the packed differences of a QOI_OP_DIFF,
+     * the packed green difference (on the 3 channels) of a QOI_OP_LUMA, or the length of a QOI_OP_RUN
+     */
+    private static final int[] DELTA = new int[256];
+
+    /**
+     * Packed red and blue differences carried by the second byte of a QOI_OP_LUMA chunk,
+     * on top of the green difference
+     */
+    private static final int[] LUMA_RED_BLUE = new int[256];
+
+    static {
+        for (int chunk = 0; chunk < 256; ++chunk){
+            int low = chunk & 0b111111;
+            switch (chunk >>> 6){
+                case 0 -> {
+                    KIND[chunk] = OP_INDEX;
+                    SIZE[chunk] = 1;
+                }
+                case 1 -> {
+                    KIND[chunk] = OP_DIFF;
+                    SIZE[chunk] = 1;
+                    DELTA[chunk] = packDelta((low >>> 4) - 2, (low >>> 2 & 0b11) - 2, (low & 0b11) - 2);
+                }
+                case 2 -> {
+                    KIND[chunk] = OP_LUMA;
+                    SIZE[chunk] = 2;
+                    DELTA[chunk] = packDelta(low - 32, low - 32, low - 32);
+                }
+                default -> {
+                    KIND[chunk] = OP_RUN;
+                    SIZE[chunk] = 1;
+                    DELTA[chunk] = low + 1;
+                }
+            }
+            LUMA_RED_BLUE[chunk] = packDelta((chunk >>> 4) - 8, 0, (chunk & 0b1111) - 8);
+        }
+        // The 8-bit tags take precedence over the 2-bit tag of QOI_OP_RUN
+        int rgb = QOISpecification.QOI_OP_RGB_TAG & 0xFF, rgba = QOISpecification.QOI_OP_RGBA_TAG & 0xFF;
+        KIND[rgb] = OP_RGB;
+        SIZE[rgb] = 4;
+        KIND[rgba] = OP_RGBA;
+        SIZE[rgba] = 5;
+    }
+
+    private final int[] index = new int[64];
+    private int previous;
+    private int run;
+    private int position;
+
+    /**
+     * Create a new decoder, ready to decode the first chunk of an image
+     */
+    public QOIChunkDecoder(){
+        reset();
+    }
+
+    /**
+     * Reset the state of the decoder so that it can decode a new image
+     */
+    public void reset(){
+        Arrays.fill(index, 0);
+        previous = START_PIXEL;
+        run = 0;
+        position = 0;
+    }
+
+    /**
+     * Set the state of the decoder to the one of the encoder at a chunk boundary,
+     * so that the decoding can start in the middle of a chunk stream
+     * @param previousPixel (int) - ARGB packed value of the pixel before the next chunk
+     * @param table (int[]) - The 64-entry index at the next chunk
+     * @throws AssertionError if the index does not have 64 entries
+     */
+    public void restore(int previousPixel, int[] table){
+        assert table != null && table.length == index.length;
+        System.arraycopy(table, 0, index, 0, index.length);
+        previous = previousPixel;
+        run = 0;
+        position = 0;
+    }
+
+    /**
+     * Index in the input right after the last consumed chunk of the previous call to decode
+     * @return (int) - Index in the input
+     */
+    public int position(){
+        return position;
+    }
+
+    // ==================================================================================
+    // ============================== PIXEL DECODING METHODS  ===========================
+    // ==================================================================================
+
+    /**
+     * Decode chunks from the input and write the pixels in the buffer. The decoding stops
+     * when the range of pixels is filled or when the next chunk is not entirely in the input.
+     * A run that does not fit in the range is resumed by the next call.
+     * The index in the input where the decoding stopped is given by {@link #position()}.
+     * Without a buffer, the pixels are only counted : this is how {@link #skip(byte[], int, int, int)} decodes.
+     * @param input (byte[]) - Chunk stream to read from
+     * @param start (int) - Index in the input of the first chunk to decode
+     * @param limit (int) - Index in the input right after the last available byte
+     * @param pixels (int[]) - Buffer where to store the ARGB packed pixels, null to only count them
+     * @param from (int) - Index of the first pixel to write (inclusive)
+     * @param to (int) - Index of the last pixel to write (exclusive)
+     * @return (int) - Index in the buffer right after the last written pixel
+     * @throws AssertionError if one of the ranges is invalid
+     */
+    public int decode(byte[] input, int start, int limit, int[] pixels, int from, int to){
+        assert input != null;
+        assert 0 <= start && start <= limit && limit <= input.length;
+        assert 0 <= from && from <= to && (pixels == null || to <= pixels.length);
+        int px = previous;
+        int pos = start;
+        int i = from;
+        while (i < to){
+            if (run > 0){
+                int n = Math.min(run, to - i);
+                if (pixels != null){
+                    Arrays.fill(pixels, i, i + n, px);
+                }
+                i += n;
+                run -= n;
+                continue;
+            }
+            if (pos >= limit){
+                break;
+            }
+            int chunk = input[pos] & 0xFF;
+            int size = SIZE[chunk];
+            if (limit - pos < size){
+                break;
+            }
+            switch (KIND[chunk]){
+                case OP_INDEX -> px = index[chunk];
+                case OP_DIFF -> px = withDelta(px, DELTA[chunk]);
+                case OP_LUMA -> px = withDelta(withDelta(px, DELTA[chunk]), LUMA_RED_BLUE[input[pos + 1] & 0xFF]);
+                case OP_RGB -> px = (px & 0xFF000000) | (input[pos + 1] & 0xFF) << 16 | (input[pos + 2] & 0xFF) << 8 | (input[pos + 3] & 0xFF);
+                case OP_RGBA -> px = (input[pos + 4] & 0xFF) << 24 | (input[pos + 1] & 0xFF) << 16 | (input[pos + 2] & 0xFF) << 8 | (input[pos + 3] & 0xFF);
+                default -> { // OP_RUN
+                    index[QOISpecification.hash(px)] = px;
+                    run = DELTA[chunk];
+                    pos += size;
+                    continue;
+                }
+            }
+            pos += size;
+            index[QOISpecification.hash(px)] = px;
+            if (pixels != null){
+                pixels[i] = px;
+            }
+            ++i;
+        }
+        previous = px;
+        position = pos;
+        return i;
+    }
+
+    /**
+     * Decode chunks from a ByteBuffer, which can be direct or memory-mapped, and write the pixels in the buffer.
+     * The ByteBuffer is read with absolute indices, its position and limit are not used nor changed.
+     * Behaves exactly like {@link #decode(byte[], int, int, int[], int, int)}, counting the pixels without a buffer.
+     * @param input (ByteBuffer) - Chunk stream to read from
+     * @param start (int) - Index in the input of the first chunk to decode
+     * @param limit (int) - Index in the input right after the last available byte
+     * @param pixels (int[]) - Buffer where to store the ARGB packed pixels, null to only count them
+     * @param from (int) - Index of the first pixel to write (inclusive)
+     * @param to (int) - Index of the last pixel to write (exclusive)
+     * @return (int) - Index in the buffer right after the last written pixel
+     * @throws AssertionError if one of the ranges is invalid
+     */
+    public int decode(ByteBuffer input, int start, int limit, int[] pixels, int from, int to){
+        assert input != null;
+        assert 0 <= start && start <= limit && limit <= input.capacity();
+        assert 0 <= from && from <= to && (pixels == null || to <= pixels.length);
+        int px = previous;
+        int pos = start;
+        int i = from;
+        while (i < to){
+            if (run > 0){
+                int n = Math.min(run, to - i);
+                if (pixels != null){
+                    Arrays.fill(pixels, i, i + n, px);
+                }
+                i += n;
+                run -= n;
+                continue;
+            }
+            if (pos >= limit){
+                break;
+            }
+            int chunk = input.get(pos) & 0xFF;
+            int size = SIZE[chunk];
+            if (limit - pos < size){
+                break;
+            }
+            switch (KIND[chunk]){
+                case OP_INDEX -> px = index[chunk];
+                case OP_DIFF -> px = withDelta(px, DELTA[chunk]);
+                case OP_LUMA -> px = withDelta(withDelta(px, DELTA[chunk]), LUMA_RED_BLUE[input.get(pos + 1) & 0xFF]);
+                case OP_RGB -> px = (px & 0xFF000000) | (input.get(pos + 1) & 0xFF) << 16 | (input.get(pos + 2) & 0xFF) << 8 | (input.get(pos + 3) & 0xFF);
+                case OP_RGBA -> px = (input.get(pos + 4) & 0xFF) << 24 | (input.get(pos + 1) & 0xFF) << 16 | (input.get(pos + 2) & 0xFF) << 8 | (input.get(pos + 3) & 0xFF);
+                default -> { // OP_RUN
+                    index[QOISpecification.hash(px)] = px;
+                    run = DELTA[chunk];
+                    pos += size;
+                    continue;
+                }
+            }
+            pos += size;
+            index[QOISpecification.hash(px)] = px;
+            if (pixels != null){
+                pixels[i] = px;
+            }
+            ++i;
+        }
+        previous = px;
+        position = pos;
+        return i;
+    }
+
+    /**
+     * Decode chunks from a ByteBuffer and write the pixels in an IntBuffer, both of them can be direct.
+     * The buffers are accessed with absolute indices, their positions and limits are not used nor changed.
+     * An IntBuffer backed by an array is filled through {@link #decode(ByteBuffer, int, int, int[], int, int)}.
+     * Behaves exactly like {@link #decode(byte[], int, int, int[], int, int)}.
+     * @param input (ByteBuffer) - Chunk stream to read from
+     * @param start (int) - Index in the input of the first chunk to decode
+     * @param limit (int) - Index in the input right after the last available byte
+     * @param pixels (IntBuffer) - Buffer where to store the ARGB packed pixels
+     * @param from (int) - Index of the first pixel to write (inclusive)
+     * @param to (int) - Index of the last pixel to write (exclusive)
+     * @return (int) - Index in the buffer right after the last written pixel
+     * @throws AssertionError if one of the ranges is invalid
+     */
+    public int decode(ByteBuffer input, int start, int limit, IntBuffer pixels, int from, int to){
+        assert input != null && pixels != null;
+        assert 0 <= from && from <= to && to <= pixels.capacity();
+        if (pixels.hasArray()){
+            int offset = pixels.arrayOffset();
+            return decode(input, start, limit, pixels.array(), offset + from, offset + to) - offset;
+        }
+        assert 0 <= start && start <= limit && limit <= input.capacity();
+        int px = previous;
+        int pos = start;
+        int i = from;
+        while (i < to){
+            if (run > 0){
+                int n = Math.min(run, to - i);
+                for (int end = i + n; i < end; ++i){
+                    pixels.put(i, px);
+                }
+                run -= n;
+                continue;
+            }
+            if (pos >= limit){
+                break;
+            }
+            int chunk = input.get(pos) & 0xFF;
+            int size = SIZE[chunk];
+            if (limit - pos < size){
+                break;
+            }
+            switch (KIND[chunk]){
+                case OP_INDEX -> px = index[chunk];
+                case OP_DIFF -> px = withDelta(px, DELTA[chunk]);
+                case OP_LUMA -> px = withDelta(withDelta(px, DELTA[chunk]), LUMA_RED_BLUE[input.get(pos + 1) & 0xFF]);
+                case OP_RGB -> px = (px & 0xFF000000) | (input.get(pos + 1) & 0xFF) << 16 | (input.get(pos + 2) & 0xFF) << 8 | (input.get(pos + 3) & 0xFF);
+                case OP_RGBA -> px = (input.get(pos + 4) & 0xFF) << 24 | (input.get(pos + 1) & 0xFF) << 16 | (input.get(pos + 2) & 0xFF) << 8 | (input.get(pos + 3) & 0xFF);
+                default -> { // OP_RUN
+                    index[QOISpecification.hash(px)] = px;
+                    run = DELTA[chunk];
+                    pos += size;
+                    continue;
+                }
+            }
+            pos += size;
+            index[QOISpecification.hash(px)] = px;
+            pixels.put(i++, px);
+        }
+        previous = px;
+        position = pos;
+        return i;
+    }
+
+    // ==================================================================================
+    // ============================== PIXEL SKIPPING METHODS  ===========================
+    // ==================================================================================
+
+    /**
+     * Decode chunks from the input without writing the pixels anywhere, through the counting mode of decode : the previous pixel,
+     * the index and the run are updated as by {@link #decode(byte[], int, int, int[], int, int)},
+     * so the next call to decode continues right after the skipped pixels.
+     * The remaining pixels of a run are skipped at once. The skipping stops when count pixels are
+     * skipped or when the next chunk is not entirely in the input.
+     * The index in the input where the skipping stopped is given by {@link #position()}.
+     * @param input (byte[]) - Chunk stream to read from
+     * @param start (int) - Index in the input of the first chunk to decode
+     * @param limit (int) - Index in the input right after the last available byte
+     * @param count (int) - Number of pixels to skip
+     * @return (int) - Number of skipped pixels
+     * @throws AssertionError if the range is invalid or count is negative
+     */
+    public int skip(byte[] input, int start, int limit, int count){
+        assert count >= 0;
+        return decode(input, start, limit, (int[]) null, 0, count);
+    }
+
+    /**
+     * Skip pixels of a chunk stream held in a ByteBuffer, which can be direct or memory-mapped.
+     * The ByteBuffer is read with absolute indices, its position and limit are not used nor changed.
+     * Behaves exactly like {@link #skip(byte[], int, int, int)}.
+     * @param input (ByteBuffer) - Chunk stream to read from
+     * @param start (int) - Index in the input of the first chunk to decode
+     * @param limit (int) - Index in the input right after the last available byte
+     * @param count (int) - Number of pixels to skip
+     * @return (int) - Number of skipped pixels
+     * @throws AssertionError if the range is invalid or count is negative
+     */
+    public int skip(ByteBuffer input, int start, int limit, int count){
+        assert count >= 0;
+        return decode(input, start, limit, (int[]) null, 0, count);
+    }
+
+    /**
+     * Pack differences of the red, green and blue channels in the layout of an ARGB pixel
+     * @param dr (int) - Difference on the red channel
+     * @param dg (int) - Difference on the green channel
+     * @param db (int) - Difference on the blue channel
+     * @return (int) - The differences, modulo 256, at the place of their channel
+     */
+    private static int packDelta(int dr, int dg, int db){
+        return (dr & 0xFF) << 16 | (dg & 0xFF) << 8 | (db & 0xFF);
+    }
+
+    /**
+     * Add packed differences to the channels of a pixel, with wraparound.
+     * Red and blue are added together, the carry of each one falls in a masked-out byte
+     * @param px (int) - ARGB packed pixel
+     * @param delta (int) - Differences packed by packDelta
+     * @return (int) - ARGB packed pixel with the same alpha
+     */
+    private static int withDelta(int px, int delta){
+        return (px & 0xFF000000)
+                | ((px & 0x00FF00FF) + (delta & 0x00FF00FF) & 0x00FF00FF)
+                | ((px & 0x0000FF00) + (delta & 0x0000FF00) & 0x0000FF00);
+    }
+
+}
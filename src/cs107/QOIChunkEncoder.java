@@ -0,0 +1,425 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Allocation-free "Quite Ok Image" chunk encoder working on packed ARGB pixels.
+ * The encoder keeps the previous pixel, the 64-entry index and the pending run
+ * as primitive state, and writes the chunks directly into a caller-supplied buffer.
+ * Feeding it the pixels of an image (in one or several calls) followed by a call to
+ * {@link #flush(byte[], int)} produces exactly the same bytes as {@link QOIEncoder#encodeData(byte[][])}.
+ * @apiNote An instance is not thread-safe, use one encoder per image being encoded.
+ */
+public final class QOIChunkEncoder {
+
+    /**
+     * Maximum number of bytes emitted for a single pixel (QOI_OP_RGBA)
+     */
+    public static final int MAX_CHUNK_SIZE = QOISpecification.RGBA + 1;
+
+    /**
+     * Maximum length of a QOI_OP_RUN chunk
+     */
+    private static final int MAX_RUN = 62;
+
+    /**
+     * {@link QOISpecification#START_PIXEL} as an ARGB packed pixel
+     */
+    private static final int START_PIXEL = ArrayUtils.toInt(ArrayUtils.concat(
+            QOISpecification.START_PIXEL[QOISpecification.a], QOISpecification.START_PIXEL[QOISpecification.r],
+            QOISpecification.START_PIXEL[QOISpecification.g], QOISpecification.START_PIXEL[QOISpecification.b]));
+
+    private final int[] index = new int[64];
+    private int previous;
+    private int run;
+
+    /**
+     * Create a new encoder, ready to encode the first pixel of an image
+     */
+    public QOIChunkEncoder(){
+        reset();
+    }
+
+    /**
+     * Reset the state of the encoder so that it can encode a new image
+     */
+    public void reset(){
+        Arrays.fill(index, 0);
+        previous = START_PIXEL;
+        run = 0;
+    }
+
+    // ==================================================================================
+    // ================================== STATE ACCESS  =================================
+    // ==================================================================================
+
+    /**
+     * @return (int) - ARGB packed value of the last encoded pixel
+     */
+    public int previous(){
+        return previous;
+    }
+
+    /**
+     * @return (int) - Number of pixels of the run that has not been written yet
+     */
+    public int pendingRun(){
+        return run;
+    }
+
+    /**
+     * Copy the 64-entry index of the encoder
+     * @param destination (int[]) - Array of 64 ints where to copy the index
+     */
+    public void copyIndex(int[] destination){
+        System.arraycopy(index, 0, destination, 0, index.length);
+    }
+
+    // ==================================================================================
+    // ============================== GLOBAL SIZE METHODS  ==============================
+    // ==================================================================================
+
+    /**
+     * Compute the worst case size of a "Quite Ok Image" file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (int) - Maximum number of bytes of the file (header and "End Of File" included)
+     * @throws AssertionError if the dimensions are invalid or the file could not fit in an array
+     */
+    public static int maxFileSize(int width, int height){
+        assert width > 0 && height > 0;
+        // RGB images may still carry alpha variations in their ARGB data, so we size as RGBA
+        long size = (long) width * height * MAX_CHUNK_SIZE
+                + QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        assert size <= Integer.MAX_VALUE - 8;
+        return (int) size;
+    }
+
+    // ==================================================================================
+    // ============================== HEADER ENCODING METHODS  ==========================
+    // ==================================================================================
+
+    /**
+     * Write a "Quite Ok Image" header in the given buffer
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param output (byte[]) - Buffer where to write the header
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the header
+     * @throws AssertionError if the colorspace or the number of channels is corrupted
+     */
+    public static int writeHeader(int width, int height, byte channels, byte colorSpace, byte[] output, int position){
+        assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
+        assert colorSpace == QOISpecification.sRGB || colorSpace == QOISpecification.ALL;
+        for (byte b : QOISpecification.QOI_MAGIC){
+            output[position++] = b;
+        }
+        position = writeInt(width, output, position);
+        position = writeInt(height, output, position);
+        output[position++] = channels;
+        output[position++] = colorSpace;
+        return position;
+    }
+
+    /**
+     * Write the "End Of File" marker in the given buffer
+     * @param output (byte[]) - Buffer where to write the marker
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the marker
+     */
+    public static int writeEOF(byte[] output, int position){
+        System.arraycopy(QOISpecification.QOI_EOF, 0, output, position, QOISpecification.QOI_EOF.length);
+        return position + QOISpecification.QOI_EOF.length;
+    }
+
+    /**
+     * Write a "Quite Ok Image" header in the given ByteBuffer, which can be direct.
+     * The ByteBuffer is written with absolute indices, its position and byte order are not used nor changed.
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param output (ByteBuffer) - Buffer where to write the header
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the header
+     * @throws AssertionError if the colorspace or the number of channels is corrupted
+     */
+    public static int writeHeader(int width, int height, byte channels, byte colorSpace, ByteBuffer output, int position){
+        assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
+        assert colorSpace == QOISpecification.sRGB || colorSpace == QOISpecification.ALL;
+        for (byte b : QOISpecification.QOI_MAGIC){
+            output.put(position++, b);
+        }
+        position = writeInt(width, output, position);
+        position = writeInt(height, output, position);
+        output.put(position++, channels);
+        output.put(position++, colorSpace);
+        return position;
+    }
+
+    /**
+     * Write the "End Of File" marker in the given ByteBuffer, with absolute indices
+     * @param output (ByteBuffer) - Buffer where to write the marker
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the marker
+     */
+    public static int writeEOF(ByteBuffer output, int position){
+        output.put(position, QOISpecification.QOI_EOF);
+        return position + QOISpecification.QOI_EOF.length;
+    }
+
+    private static int writeInt(int value, byte[] output, int position){
+        output[position]     = (byte) (value >>> 24);
+        output[position + 1] = (byte) (value >>> 16);
+        output[position + 2] = (byte) (value >>> 8);
+        output[position + 3] = (byte) value;
+        return position + 4;
+    }
+
+    private static int writeInt(int value, ByteBuffer output, int position){
+        output.put(position, (byte) (value >>> 24));
+        output.put(position + 1, (byte) (value >>> 16));
+        output.put(position + 2, (byte) (value >>> 8));
+        output.put(position + 3, (byte) value);
+        return position + 4;
+    }
+
+    // ==================================================================================
+    // ============================== PIXEL ENCODING METHODS  ===========================
+    // ==================================================================================
+
+    /**
+     * Encode the given pixels and write the produced chunks in the buffer.
+     * A run that is still open at the end of the pixels is kept pending
+     * until the next call or a call to {@link #flush(byte[], int)}.
+     * @apiNote At most {@code (to - from) * MAX_CHUNK_SIZE + 1} bytes are written
+     * @param pixels (int[]) - ARGB packed pixels
+     * @param from (int) - Index of the first pixel to encode (inclusive)
+     * @param to (int) - Index of the last pixel to encode (exclusive)
+     * @param output (byte[]) - Buffer where to write the chunks
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the last written chunk
+     * @throws AssertionError if the range of pixels is invalid
+     */
+    public int encode(int[] pixels, int from, int to, byte[] output, int position){
+        assert pixels != null && output != null;
+        assert 0 <= from && from <= to && to <= pixels.length;
+        int prev = previous;
+        int count = run;
+        for (int i = from; i < to; ++i){
+            int px = pixels[i];
+            //=====ETAPE 1 =======================
+            if (px == prev){
+                // Long runs are measured at once, the scalar check keeps short runs cheap
+                int n = i + 1 < to && pixels[i + 1] == px ? runLength(pixels, i, to) : 1;
+                i += n - 1;
+                count += n;
+                while (count >= MAX_RUN){
+                    output[position++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (MAX_RUN - 1));
+                    count -= MAX_RUN;
+                }
+                continue;
+            }
+            if (count > 0){
+                output[position++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (count - 1));
+                count = 0;
+            }
+            //=====ETAPE 2 =======================
+            int h = QOISpecification.hash(px);
+            if (index[h] == px){
+                output[position++] = (byte) (QOISpecification.QOI_OP_INDEX_TAG | h);
+                prev = px;
+                continue;
+            }
+            index[h] = px;
+            // Channels are compared as signed bytes, exactly like QOIEncoder::encodeData
+            byte r = (byte) (px >> 16), g = (byte) (px >> 8), b = (byte) px, a = (byte) (px >>> 24);
+            if (a == (byte) (prev >>> 24)){
+                int dr = r - (byte) (prev >> 16);
+                int dg = g - (byte) (prev >> 8);
+                int db = b - (byte) prev;
+                //=====ETAPE 3 =======================
+                if (dr > -3 && dr < 2 && dg > -3 && dg < 2 && db > -3 && db < 2){
+                    output[position++] = (byte) (QOISpecification.QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                    prev = px;
+                    continue;
+                }
+                //=====ETAPE 4 =======================
+                int drg = dr - dg, dbg = db - dg;
+                if (dg > -33 && dg < 32 && drg > -9 && drg < 8 && dbg > -9 && dbg < 8){
+                    output[position++] = (byte) (QOISpecification.QOI_OP_LUMA_TAG | (dg + 32));
+                    output[position++] = (byte) ((drg + 8) << 4 | (dbg + 8));
+                    prev = px;
+                    continue;
+                }
+                //=====ETAPE 5 =======================
+                output[position++] = QOISpecification.QOI_OP_RGB_TAG;
+                output[position++] = r;
+                output[position++] = g;
+                output[position++] = b;
+            } else {
+                //=====ETAPE 6 =======================
+                output[position++] = QOISpecification.QOI_OP_RGBA_TAG;
+                output[position++] = r;
+                output[position++] = g;
+                output[position++] = b;
+                output[position++] = a;
+            }
+            prev = px;
+        }
+        previous = prev;
+        run = count;
+        return position;
+    }
+
+    /**
+     * Write the pending run, if any, in the buffer. Must be called after the last pixel of the image.
+     * @param output (byte[]) - Buffer where to write the chunk
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the written chunk
+     */
+    public int flush(byte[] output, int position){
+        if (run > 0){
+            output[position++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (run - 1));
+            run = 0;
+        }
+        return position;
+    }
+
+    /**
+     * Encode pixels held in an IntBuffer and write the produced chunks in a ByteBuffer.
+     * Both buffers can be direct, they are accessed with absolute indices : their positions,
+     * limits and byte orders are not used nor changed. When both are backed by arrays,
+     * the pixels are encoded through {@link #encode(int[], int, int, byte[], int)}, which it behaves exactly like.
+     * @param pixels (IntBuffer) - ARGB packed pixels
+     * @param from (int) - Index of the first pixel to encode (inclusive)
+     * @param to (int) - Index of the last pixel to encode (exclusive)
+     * @param output (ByteBuffer) - Buffer where to write the chunks
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the last written chunk
+     * @throws AssertionError if the range of pixels is invalid
+     */
+    public int encode(IntBuffer pixels, int from, int to, ByteBuffer output, int position){
+        assert pixels != null && output != null;
+        assert 0 <= from && from <= to && to <= pixels.capacity();
+        if (pixels.hasArray() && output.hasArray()){
+            int offset = pixels.arrayOffset();
+            int shift = output.arrayOffset();
+            return encode(pixels.array(), offset + from, offset + to, output.array(), shift + position) - shift;
+        }
+        int prev = previous;
+        int count = run;
+        for (int i = from; i < to; ++i){
+            int px = pixels.get(i);
+            if (px == prev){
+                if (++count == MAX_RUN){
+                    output.put(position++, (byte) (QOISpecification.QOI_OP_RUN_TAG | (count - 1)));
+                    count = 0;
+                }
+                continue;
+            }
+            if (count > 0){
+                output.put(position++, (byte) (QOISpecification.QOI_OP_RUN_TAG | (count - 1)));
+                count = 0;
+            }
+            int h = QOISpecification.hash(px);
+            if (index[h] == px){
+                output.put(position++, (byte) (QOISpecification.QOI_OP_INDEX_TAG | h));
+                prev = px;
+                continue;
+            }
+            index[h] = px;
+            byte r = (byte) (px >> 16), g = (byte) (px >> 8), b = (byte) px, a = (byte) (px >>> 24);
+            if (a == (byte) (prev >>> 24)){
+                int dr = r - (byte) (prev >> 16);
+                int dg = g - (byte) (prev >> 8);
+                int db = b - (byte) prev;
+                if (dr > -3 && dr < 2 && dg > -3 && dg < 2 && db > -3 && db < 2){
+                    output.put(position++, (byte) (QOISpecification.QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2)));
+                    prev = px;
+                    continue;
+                }
+                int drg = dr - dg, dbg = db - dg;
+                if (dg > -33 && dg < 32 && drg > -9 && drg < 8 && dbg > -9 && dbg < 8){
+                    output.put(position++, (byte) (QOISpecification.QOI_OP_LUMA_TAG | (dg + 32)));
+                    output.put(position++, (byte) ((drg + 8) << 4 | (dbg + 8)));
+                    prev = px;
+                    continue;
+                }
+                output.put(position++, QOISpecification.QOI_OP_RGB_TAG);
+            } else {
+                output.put(position++, QOISpecification.QOI_OP_RGBA_TAG);
+            }
+            output.put(position++, r);
+            output.put(position++, g);
+            output.put(position++, b);
+            if (a != (byte) (prev >>> 24)){
+                output.put(position++, a);
+            }
+            prev = px;
+        }
+        previous = prev;
+        run = count;
+        return position;
+    }
+
+    /**
+     * Write the pending run, if any, in the ByteBuffer, with absolute indices
+     * @param output (ByteBuffer) - Buffer where to write the chunk
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the written chunk
+     */
+    public int flush(ByteBuffer output, int position){
+        if (run > 0){
+            output.put(position++, (byte) (QOISpecification.QOI_OP_RUN_TAG | (run - 1)));
+            run = 0;
+        }
+        return position;
+    }
+
+    // ==================================================================================
+    // ================================ RUN DETECTION  ==================================
+    // ==================================================================================
+
+    /**
+     * Length of the run of pixels equal to pixels[from], starting at from.
+     * The pixels are compared with Arrays::mismatch, which the JVM compiles to vector
+     * instructions comparing many pixels at once.
+     * @param pixels (int[]) - ARGB packed pixels
+     * @param from (int) - Index of the first pixel of the run
+     * @param to (int) - Index right after the last pixel that can be part of the run
+     * @return (int) - Number of pixels of the run, between 1 and to - from
+     * @throws AssertionError if the range of pixels is invalid or empty
+     */
+    public static int runLength(int[] pixels, int from, int to){
+        assert pixels != null;
+        assert 0 <= from && from < to && to <= pixels.length;
+        // pixels[from + 1 + k] is compared with pixels[from + k], the first difference ends the run
+        int mismatch = Arrays.mismatch(pixels, from + 1, to, pixels, from, to - 1);
+        return mismatch < 0 ? to - from : mismatch + 1;
+    }
+
+    /**
+     * Scalar version of {@link #runLength(int[], int, int)}, comparing the pixels one by one
+     * @param pixels (int[]) - ARGB packed pixels
+     * @param from (int) - Index of the first pixel of the run
+     * @param to (int) - Index right after the last pixel that can be part of the run
+     * @return (int) - Number of pixels of the run, between 1 and to - from
+     * @throws AssertionError if the range of pixels is invalid or empty
+     */
+    public static int runLengthScalar(int[] pixels, int from, int to){
+        assert pixels != null;
+        assert 0 <= from && from < to && to <= pixels.length;
+        int px = pixels[from];
+        int i = from + 1;
+        while (i < to && pixels[i] == px){
+            ++i;
+        }
+        return i - from;
+    }
+
+}
@@ -0,0 +1,210 @@
+package cs107;
+
+/**
+ * Reusable working memory of the "Quite Ok Image" codec.
+ * A context keeps its chunk encoder, its chunk decoder, its output buffer and its pixel buffer
+ * from one image to the next : the buffers only grow when an image needs more room than any
+ * image before it, and the encoder and decoder are reset instead of being recreated.
+ * Once the buffers are large enough, encoding and decoding an image allocates nothing.
+ * @apiNote An instance is not thread-safe, keep one context per thread (see QOICodecContext::local).
+ * The content of output() and pixels() is only valid until the next call on the context.
+ */
+public final class QOICodecContext {
+
+    private static final ThreadLocal<QOICodecContext> LOCAL = ThreadLocal.withInitial(QOICodecContext::new);
+
+    private final QOIChunkEncoder encoder = new QOIChunkEncoder();
+    private final QOIChunkDecoder decoder = new QOIChunkDecoder();
+    private byte[] output = new byte[0];
+    private int[] pixels = new int[0];
+
+    private int width;
+    private int height;
+    private byte channels;
+    private byte colorSpace;
+    private boolean complete;
+
+    /**
+     * Create a new context with empty buffers
+     */
+    public QOICodecContext(){}
+
+    /**
+     * @return (QOICodecContext) - The context of the current thread
+     */
+    public static QOICodecContext local(){
+        return LOCAL.get();
+    }
+
+    // ==================================================================================
+    // ==================================== ACCESSORS ===================================
+    // ==================================================================================
+
+    /**
+     * @return (byte[]) - Buffer holding the last encoded file, from index 0 to the length returned by encode
+     */
+    public byte[] output(){
+        return output;
+    }
+
+    /**
+     * @return (int[]) - Buffer holding the pixels of the last decoded image, from index 0 to width() * height()
+     */
+    public int[] pixels(){
+        return pixels;
+    }
+
+    /**
+     * @return (int) - Width of the last decoded image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the last decoded image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the last decoded image
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the last decoded image
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    /**
+     * @return (boolean) - True if the chunks of the last decoded file held exactly width() * height() pixels,
+     * false if the file was truncated or corrupted
+     */
+    public boolean complete(){
+        return complete;
+    }
+
+    /**
+     * Drop the buffers, to give back their memory after an unusually large image
+     */
+    public void release(){
+        output = new byte[0];
+        pixels = new int[0];
+        width = height = 0;
+        complete = false;
+    }
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode a packed image in the output buffer
+     * @param image (PackedImage) - Image to encode
+     * @return (int) - Size of the "Quite Ok Image" file, held in output()
+     * @throws AssertionError if the image is null
+     */
+    public int encode(PackedImage image){
+        assert image != null;
+        return encode(image.data(), image.width(), image.height(), image.channels(), image.color_space());
+    }
+
+    /**
+     * Encode the given ARGB pixels in the output buffer
+     * @param data (int[]) - ARGB pixels, row after row, from index 0
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @return (int) - Size of the "Quite Ok Image" file, held in output()
+     * @throws AssertionError if the data is null or smaller than the image
+     */
+    public int encode(int[] data, int width, int height, byte channels, byte colorSpace){
+        assert data != null;
+        assert width > 0 && height > 0 && data.length >= (long) width * height;
+        int needed = QOIChunkEncoder.maxFileSize(width, height);
+        if (output.length < needed){
+            output = new byte[needed];
+        }
+        encoder.reset();
+        int position = QOIChunkEncoder.writeHeader(width, height, channels, colorSpace, output, 0);
+        position = encoder.encode(data, 0, width * height, output, position);
+        position = encoder.flush(output, position);
+        return QOIChunkEncoder.writeEOF(output, position);
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a whole "Quite Ok Image" file in the pixel buffer
+     * @param content (byte[]) - Content of the file to decode
+     * @return (int) - Number of decoded pixels, held in pixels()
+     * @throws AssertionError if the content is null or corrupted
+     */
+    public int decode(byte[] content){
+        assert content != null;
+        return decode(content, 0, content.length);
+    }
+
+    /**
+     * Decode a "Quite Ok Image" file held in a part of an array in the pixel buffer
+     * @param content (byte[]) - Array holding the file
+     * @param offset (int) - Index in content of the first byte of the file
+     * @param length (int) - Size of the file
+     * @return (int) - Number of decoded pixels, held in pixels()
+     * @throws AssertionError if the content is null or corrupted
+     */
+    public int decode(byte[] content, int offset, int length){
+        assert content != null;
+        assert offset >= 0 && length >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        assert offset + length <= content.length;
+        for (int i = 0; i < QOISpecification.QOI_MAGIC.length; ++i){
+            assert content[offset + i] == QOISpecification.QOI_MAGIC[i];
+        }
+        width = readInt(content, offset + 4);
+        height = readInt(content, offset + 8);
+        channels = content[offset + 12];
+        colorSpace = content[offset + 13];
+        assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
+        assert colorSpace == QOISpecification.ALL || colorSpace == QOISpecification.sRGB;
+
+        int size = Math.multiplyExact(width, height);
+        // A chunk holds at most one run of 62 pixels : a smaller file cannot hold that many pixels, do not allocate them
+        assert size <= 62L * (length - QOISpecification.HEADER_SIZE - QOISpecification.QOI_EOF.length);
+        if (pixels.length < size){
+            pixels = new int[size];
+        }
+        decoder.reset();
+        int limit = offset + length - QOISpecification.QOI_EOF.length;
+        int decoded = decoder.decode(content, offset + QOISpecification.HEADER_SIZE, limit, pixels, 0, size);
+        complete = decoded == size && decoder.position() == limit;
+        assert complete;
+        return size;
+    }
+
+    /**
+     * Copy the last decoded image in a new packed image
+     * @return (PackedImage) - The last decoded image
+     * @throws AssertionError if no image was decoded
+     */
+    public PackedImage decodedImage(){
+        assert width > 0 && height > 0;
+        PackedImage image = PackedImage.allocate(width, height, channels, colorSpace);
+        System.arraycopy(pixels, 0, image.data(), 0, image.data().length);
+        return image;
+    }
+
+    private static int readInt(byte[] input, int position){
+        return (input[position] & 0xFF) << 24 | (input[position + 1] & 0xFF) << 16
+                | (input[position + 2] & 0xFF) << 8 | (input[position + 3] & 0xFF);
+    }
+
+}
@@ -1,5 +1,8 @@
 package cs107;
 
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
 import static cs107.Helper.Image;
 import static cs107.Helper.generateImage;
 
@@ -181,6 +184,26 @@ public final class QOIDecoder {
     // ========================= GLOBAL DECODING METHODS ================================
     // ==================================================================================
 
+    /**
+     * Decode the given data using the "Quite Ok Image" Protocol and count its chunks
+     * @param data (byte[]) - Data to decode
+     * @param width (int) - The width of the expected output
+     * @param height (int) - The height of the expected output
+     * @param stats (QOIStats) - Statistics where to count the image with 4 channels, null to count nothing.
+     * The chunk stream has no header nor "End Of File" marker, its phases are not timed
+     * @return (byte[][]) - Decoded "Quite Ok Image"
+     * @throws AssertionError See handouts section 6.3
+     */
+    public static byte[][] decodeData(byte[] data, int width, int height, QOIStats stats){
+        QOIStats.CodecEvent event = QOIStats.begin();
+        byte[][] image = decodeData(data, width, height);
+        if (stats != null || event != null && event.shouldCommit()){
+            QOIStats.record(stats, event, "decode", width, height, (long) width * height, QOISpecification.RGBA,
+                    data, 0, data.length, null);
+        }
+        return image;
+    }
+
     /**
      * Decode the given data using the "Quite Ok Image" Protocol
      * @param data (byte[]) - Data to decode
@@ -260,16 +283,266 @@ public final class QOIDecoder {
      * @throws AssertionError if content is null
      */
     public static Image decodeQoiFile(byte[] content){
-        byte[] encodedHeader = ArrayUtils.extract(content,0,14);
-
-
-        int[] decodedHeader = decodeHeader(encodedHeader);
+        assert content != null;
+        int[] decodedHeader = decodeHeader(ArrayUtils.extract(content,0,QOISpecification.HEADER_SIZE));
         int w = decodedHeader[0];
         int h = decodedHeader[1];
 
-        byte[][] imageDecoded = decodeData(ArrayUtils.extract(content,14,content.length-22),w,h );
-        Image image = generateImage(ArrayUtils.channelsToImage(imageDecoded,w,h),(byte)decodedHeader[2],(byte)decodedHeader[3]);
+        int[][] data = new int[h][];
+        QOIChunkDecoder decoder = new QOIChunkDecoder();
+        int position = QOISpecification.HEADER_SIZE;
+        int limit = content.length - QOISpecification.QOI_EOF.length;
+        for (int y = 0; y < h; ++y){
+            data[y] = new int[w];
+            int decoded = decoder.decode(content, position, limit, data[y], 0, w);
+            assert decoded == w;
+            position = decoder.position();
+        }
+        assert position == limit;
+        return generateImage(data,(byte)decodedHeader[2],(byte)decodedHeader[3]);
+    }
+
+    // ==================================================================================
+    // ========================= PACKED DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol into a packed image
+     * @param content (byte[]) - Content of the file to decode
+     * @return (PackedImage) - Decoded image
+     * @throws AssertionError if content is null or corrupted
+     */
+    public static PackedImage decodePackedQoiFile(byte[] content){
+        assert content != null;
+        int[] decodedHeader = decodeHeader(ArrayUtils.extract(content,0,QOISpecification.HEADER_SIZE));
+        PackedImage image = PackedImage.allocate(decodedHeader[0], decodedHeader[1], (byte)decodedHeader[2], (byte)decodedHeader[3]);
+        decodeQoiPixels(content, image.data());
+        return image;
+    }
+
+    /**
+     * Decode the pixels of a "Quite Ok Image" file in a flat array of ARGB packed pixels
+     * @param content (byte[]) - Content of the file to decode
+     * @return (int[]) - Pixels of the image, row after row
+     * @throws AssertionError if content is null or corrupted
+     */
+    public static int[] decodeQoiPixels(byte[] content){
+        return decodeQoiPixels(content, null);
+    }
+
+    /**
+     * Decode the pixels of a "Quite Ok Image" file in the given flat array of ARGB packed pixels
+     * @param content (byte[]) - Content of the file to decode
+     * @param pixels (int[]) - Buffer where to store the pixels, row after row.
+     * A new buffer is allocated if it is null or too small
+     * @return (int[]) - The buffer holding the pixels
+     * @throws AssertionError if content is null or corrupted
+     */
+    public static int[] decodeQoiPixels(byte[] content, int[] pixels){
+        return decodeQoiPixels(content, pixels, null);
+    }
+
+    /**
+     * Decode the pixels of a "Quite Ok Image" file in the given flat array of ARGB packed pixels and count its chunks.
+     * The QOIStats.CodecEvent of Java Flight Recorder is committed too when it is enabled.
+     * @param content (byte[]) - Content of the file to decode
+     * @param pixels (int[]) - Buffer where to store the pixels, row after row.
+     * A new buffer is allocated if it is null or too small
+     * @param stats (QOIStats) - Statistics where to count the image, null to count nothing
+     * @return (int[]) - The buffer holding the pixels
+     * @throws AssertionError if content is null or corrupted
+     */
+    public static int[] decodeQoiPixels(byte[] content, int[] pixels, QOIStats stats){
+        assert content != null;
+        QOIStats.CodecEvent event = QOIStats.begin();
+        long start = System.nanoTime();
+        int[] decodedHeader = decodeHeader(ArrayUtils.extract(content,0,QOISpecification.HEADER_SIZE));
+        int size = Math.multiplyExact(decodedHeader[0], decodedHeader[1]);
+        if (pixels == null || pixels.length < size){
+            pixels = new int[size];
+        }
+        long header = System.nanoTime();
+        int limit = content.length - QOISpecification.QOI_EOF.length;
+        int end = decodeData(content, QOISpecification.HEADER_SIZE, limit, pixels, size);
+        long chunks = System.nanoTime();
+        assert end == limit;
+        if (stats != null || event != null && event.shouldCommit()){
+            QOIStats.record(stats, event, "decode", decodedHeader[0], decodedHeader[1], (long) decodedHeader[0] * decodedHeader[1], (byte) decodedHeader[2],
+                    content, QOISpecification.HEADER_SIZE, limit, new long[]{start, header, chunks, System.nanoTime()});
+        }
+        return pixels;
+    }
+
+    /**
+     * Decode the given chunk stream in a flat array of ARGB packed pixels
+     * @param data (byte[]) - Data to decode
+     * @param start (int) - Index in data of the first chunk
+     * @param limit (int) - Index in data right after the last chunk
+     * @param pixels (int[]) - Buffer where to store the pixels
+     * @param count (int) - Number of pixels to decode
+     * @return (int) - Index in data right after the last consumed chunk
+     * @throws AssertionError if data does not hold enough chunks to decode count pixels
+     */
+    public static int decodeData(byte[] data, int start, int limit, int[] pixels, int count){
+        QOIChunkDecoder decoder = new QOIChunkDecoder();
+        int decoded = decoder.decode(data, start, limit, pixels, 0, count);
+        assert decoded == count;
+        return decoder.position();
+    }
+
+    // ==================================================================================
+    // ========================= MAPPED DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a "Quite Ok Image" file held in a ByteBuffer, for example
+     * a file memory-mapped with Helper::map. The chunks are read in place,
+     * without copying them to the heap.
+     * @param content (ByteBuffer) - Content of the file to decode, from index 0 to its limit
+     * @return (PackedImage) - Decoded image
+     * @throws AssertionError if content is null or corrupted
+     */
+    public static PackedImage decodePackedQoiFile(ByteBuffer content){
+        assert content != null;
+        byte[] header = new byte[QOISpecification.HEADER_SIZE];
+        content.get(0, header);
+        int[] decodedHeader = decodeHeader(header);
+        PackedImage image = PackedImage.allocate(decodedHeader[0], decodedHeader[1], (byte)decodedHeader[2], (byte)decodedHeader[3]);
+
+        QOIChunkDecoder decoder = new QOIChunkDecoder();
+        int limit = content.limit() - QOISpecification.QOI_EOF.length;
+        int decoded = decoder.decode(content, QOISpecification.HEADER_SIZE, limit, image.data(), 0, image.data().length);
+        assert decoded == image.data().length;
+        assert decoder.position() == limit;
         return image;
     }
 
-}
\ No newline at end of file
+    /**
+     * Decode a "Quite Ok Image" file held in a ByteBuffer in an IntBuffer of ARGB pixels.
+     * Both buffers can be direct (for example a file read from a socket and a ByteBuffer::asIntBuffer
+     * view of a direct buffer), the chunks and the pixels are never copied to the heap.
+     * @param content (ByteBuffer) - The file to decode, from its position to its limit.
+     * Its position is moved to its limit
+     * @param pixels (IntBuffer) - Buffer where to store the pixels, row after row, from its position.
+     * Its position is moved right after the last pixel
+     * @return (int[]) - Header of the file, see QOIDecoder::decodeHeader
+     * @throws AssertionError if a buffer is null, the content is corrupted
+     * or pixels has less room remaining than the pixels of the image
+     */
+    public static int[] decodeQoiFile(ByteBuffer content, IntBuffer pixels){
+        assert content != null && pixels != null;
+        int start = content.position();
+        assert content.remaining() >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        byte[] header = new byte[QOISpecification.HEADER_SIZE];
+        content.get(start, header);
+        int[] decodedHeader = decodeHeader(header);
+        int size = Math.multiplyExact(decodedHeader[0], decodedHeader[1]);
+        assert pixels.remaining() >= size;
+
+        QOIChunkDecoder decoder = new QOIChunkDecoder();
+        int limit = content.limit() - QOISpecification.QOI_EOF.length;
+        int from = pixels.position();
+        int decoded = decoder.decode(content, start + QOISpecification.HEADER_SIZE, limit, pixels, from, from + size);
+        assert decoded == from + size;
+        assert decoder.position() == limit;
+        content.position(content.limit());
+        pixels.position(from + size);
+        return decodedHeader;
+    }
+
+
+    // ==================================================================================
+    // ========================= REGION DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a rectangle of a "Quite Ok Image" file. The rows above the rectangle and the columns
+     * around it are skipped without being stored, and the decoding stops after its last row :
+     * the memory used is the size of the rectangle and the time depends on how far in the file it ends.
+     * @param content (byte[]) - Content of the file to decode
+     * @param x (int) - Column of the top-left corner of the rectangle
+     * @param y (int) - Row of the top-left corner of the rectangle
+     * @param width (int) - Width of the rectangle
+     * @param height (int) - Height of the rectangle
+     * @return (PackedImage) - The rectangle, with the channels and the color space of the file
+     * @throws AssertionError if content is null or corrupted or the rectangle is not in the image
+     */
+    public static PackedImage decodeRegion(byte[] content, int x, int y, int width, int height){
+        assert content != null;
+        return decodeRegion(ByteBuffer.wrap(content), x, y, width, height);
+    }
+
+    /**
+     * Decode a rectangle of a "Quite Ok Image" file held in a ByteBuffer, for example a file
+     * memory-mapped with Helper::map : only the pages up to the end of the rectangle are read.
+     * Behaves exactly like {@link #decodeRegion(byte[], int, int, int, int)}.
+     * @param content (ByteBuffer) - Content of the file to decode, from index 0 to its limit
+     * @param x (int) - Column of the top-left corner of the rectangle
+     * @param y (int) - Row of the top-left corner of the rectangle
+     * @param width (int) - Width of the rectangle
+     * @param height (int) - Height of the rectangle
+     * @return (PackedImage) - The rectangle, with the channels and the color space of the file
+     * @throws AssertionError if content is null or corrupted or the rectangle is not in the image
+     */
+    public static PackedImage decodeRegion(ByteBuffer content, int x, int y, int width, int height){
+        return decodeRegion(content, new QOIChunkDecoder(), QOISpecification.HEADER_SIZE, 0, x, y, width, height);
+    }
+
+    /**
+     * Decode a rectangle of a "Quite Ok Image" file from a given state of the chunk decoder,
+     * for example a restart point of QOIRestartIndex
+     * @param content (ByteBuffer) - Content of the file to decode, from index 0 to its limit
+     * @param decoder (QOIChunkDecoder) - Decoder in the state of the chunk stream at start
+     * @param start (int) - Index in content of the next chunk
+     * @param pixel (int) - Index of the next pixel in the image, in row-major order,
+     * at most the index of the top-left corner of the rectangle
+     * @param x (int) - Column of the top-left corner of the rectangle
+     * @param y (int) - Row of the top-left corner of the rectangle
+     * @param width (int) - Width of the rectangle
+     * @param height (int) - Height of the rectangle
+     * @return (PackedImage) - The rectangle, with the channels and the color space of the file
+     * @throws AssertionError if content is null or corrupted or the rectangle is not in the image
+     */
+    static PackedImage decodeRegion(ByteBuffer content, QOIChunkDecoder decoder, int start, int pixel,
+                                    int x, int y, int width, int height){
+        assert content != null && decoder != null;
+        assert content.limit() >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        byte[] header = new byte[QOISpecification.HEADER_SIZE];
+        content.get(0, header);
+        int[] decodedHeader = decodeHeader(header);
+        int imageWidth = decodedHeader[0];
+        assert width > 0 && height > 0 && x >= 0 && y >= 0;
+        assert x <= imageWidth - width && y <= decodedHeader[1] - height;
+        assert 0 <= pixel && pixel <= (long) y * imageWidth + x;
+        PackedImage region = PackedImage.allocate(width, height, (byte) decodedHeader[2], (byte) decodedHeader[3]);
+
+        // Reading the heap array directly is faster than going through the ByteBuffer
+        byte[] array = content.hasArray() && content.arrayOffset() == 0 ? content.array() : null;
+        int[] pixels = region.data();
+        int position = start;
+        int limit = content.limit() - QOISpecification.QOI_EOF.length;
+        // The image can have more than 2^31 pixels, only the region fits in an array
+        long next = pixel;
+        for (int row = 0; row < height; ++row){
+            long first = (long) (y + row) * imageWidth + x;
+            while (next < first){
+                int count = (int) Math.min(first - next, Integer.MAX_VALUE);
+                int skipped = array != null
+                        ? decoder.skip(array, position, limit, count)
+                        : decoder.skip(content, position, limit, count);
+                assert skipped == count;
+                position = decoder.position();
+                next += count;
+            }
+            int from = row * width;
+            int decoded = array != null
+                    ? decoder.decode(array, position, limit, pixels, from, from + width)
+                    : decoder.decode(content, position, limit, pixels, from, from + width);
+            assert decoded == from + width;
+            position = decoder.position();
+            next = first + width;
+        }
+        return region;
+    }
+
+}
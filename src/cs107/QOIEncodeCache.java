@@ -0,0 +1,495 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * On-disk content-addressed store of "Quite Ok Image" files, keyed by the ContentHash of the image
+ * they were encoded from. Converting the same "PNG" again costs a hash and a copy of the entry
+ * instead of decoding the "PNG" and encoding it.
+ * <p>
+ * The entries are stored as root/xx/hash.qoi, xx being the first two hexadecimal digits of the hash.
+ * Every entry is written in a temporary file and atomically moved to its name, so a reader never sees a
+ * partial entry. The total size of the entries is bounded : the least recently used entries are deleted
+ * first. Every hit sets the last modification time of its entry, so that when the store is opened again
+ * the entries are ordered by last modification time, which is their last use.
+ * <p>
+ * In link mode, chosen when the store is opened, the converted files are hard links to the entries
+ * (or copies when the target is on another file system), which saves the copy. A linked file shares the
+ * inode of its entry : writing it in place, like Helper::write does, also writes the entry, and touching
+ * the entry would also touch every linked file. So in this mode the entries are not touched on a hit
+ * (a store opened again orders them by the time they were stored), and the content of an entry is hashed
+ * when it is stored or found when the store is opened, and checked against that hash on every hit :
+ * an entry modified since is dropped and the hit becomes a miss.
+ * @apiNote A store can be used by several threads at the same time. Two threads missing the same
+ * content at the same time both encode it, the last one to finish replaces the entry of the first one
+ */
+public final class QOIEncodeCache {
+
+    private static final String SUFFIX = ".qoi";
+
+    private final Path root;
+    private final long budget;
+    private final boolean link;
+
+    /**
+     * Entry of the store
+     * @param size (long) - Size of the "QOI" file
+     * @param qoi (ContentHash) - Hash of the "QOI" file in link mode, null otherwise
+     */
+    private record Stored(long size, ContentHash qoi){}
+
+    /**
+     * The entries, in access order : the least recently used one comes first. Guarded by itself
+     */
+    private final LinkedHashMap<ContentHash, Stored> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long used;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Open the store in the given folder, creating it if needed, the converted files being copies of the entries.
+     * The existing entries are kept, the least recently used ones being evicted if they do not fit in the budget
+     * @param root (Path) - Folder of the store
+     * @param budget (long) - Maximum total size of the entries, in bytes
+     */
+    public QOIEncodeCache(Path root, long budget){
+        this(root, budget, false);
+    }
+
+    /**
+     * Open the store in the given folder, creating it if needed. The existing entries are kept,
+     * the least recently used ones being evicted if they do not fit in the budget
+     * @param root (Path) - Folder of the store
+     * @param budget (long) - Maximum total size of the entries, in bytes
+     * @param link (boolean) - True to link the converted files to the entries instead of copying them,
+     * the existing entries are then read to be hashed
+     */
+    public QOIEncodeCache(Path root, long budget, boolean link){
+        assert root != null && budget > 0;
+        this.root = root;
+        this.budget = budget;
+        this.link = link;
+        record Entry(ContentHash key, Stored stored, FileTime modified){}
+        List<Entry> found = new ArrayList<>();
+        try {
+            Files.createDirectories(root);
+            try (Stream<Path> walk = Files.walk(root, 2)){
+                for (Path file : (Iterable<Path>) walk::iterator){
+                    if (file.getFileName().toString().endsWith(".part")){
+                        // Left by a writer that stopped before moving it to its name
+                        Files.deleteIfExists(file);
+                        continue;
+                    }
+                    ContentHash key = keyOf(file);
+                    if (key == null){
+                        continue;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    ContentHash qoi = link ? ContentHash.of(Files.readAllBytes(file)) : null;
+                    found.add(new Entry(key, new Stored(attributes.size(), qoi), attributes.lastModifiedTime()));
+                }
+            }
+        } catch (IOException e){
+            Helper.fail("Cannot open the encode cache \"%s\"", root);
+        }
+        found.sort(Comparator.comparing(Entry::modified));
+        synchronized (entries){
+            for (Entry entry : found){
+                entries.put(entry.key(), entry.stored());
+                used += entry.stored().size();
+            }
+        }
+        evict();
+    }
+
+    // ==================================================================================
+    // ================================ CONVERSION METHODS ==============================
+    // ==================================================================================
+
+    /**
+     * Encode the content of a "PNG" file to a "QOI" file, reading the entry of the store on a hit
+     * @param png (byte[]) - Content of the "PNG" file
+     * @return (byte[]) - Content of the "QOI" file
+     * @throws AssertionError if png is null
+     */
+    public byte[] encode(byte[] png){
+        assert png != null;
+        ContentHash key = ContentHash.of(png);
+        Path entry = lookup(key);
+        if (entry != null){
+            try {
+                return Files.readAllBytes(entry);
+            } catch (NoSuchFileException e){
+                // Evicted by another thread since the lookup
+                forget(key);
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+        byte[] qoi = BatchConverter.pngToQoi(png);
+        store(key, qoi);
+        return qoi;
+    }
+
+    /**
+     * Convert a "PNG" file to a "QOI" file, copying (or linking) the entry of the store to the target on a hit
+     * @param png (Path) - The "PNG" file
+     * @param target (Path) - The "QOI" file to create or replace
+     * @return (boolean) - True if the entry was already in the store
+     * @throws AssertionError if a path is null
+     */
+    public boolean convert(Path png, Path target){
+        assert png != null && target != null;
+        try {
+            byte[] content = Files.readAllBytes(png);
+            ContentHash key = ContentHash.of(content);
+            if (place(key, target)){
+                return true;
+            }
+            byte[] qoi = BatchConverter.pngToQoi(content);
+            placeStored(store(key, qoi), qoi, target);
+            return false;
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copy (or link) the entry of a content to the target, if it is in the store
+     * @param key (ContentHash) - Hash of the content of the "PNG" file
+     * @param target (Path) - The "QOI" file to create or replace
+     * @return (boolean) - True if the entry was in the store and the target holds its content
+     * @throws UncheckedIOException if the target cannot be written
+     */
+    public boolean place(ContentHash key, Path target){
+        Path entry = lookup(key);
+        if (entry == null){
+            return false;
+        }
+        try {
+            copyOrLink(entry, target);
+            return true;
+        } catch (NoSuchFileException e){
+            // Evicted by another thread since the lookup
+            forget(key);
+            return false;
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ==================================================================================
+    // ================================== STORE METHODS =================================
+    // ==================================================================================
+
+    /**
+     * Find the entry of a content and mark it as the most recently used one, in memory and,
+     * out of link mode, on the disk. In link mode, an entry whose content changed since it was stored is dropped.
+     * The entry may be evicted by another thread before it is read
+     * @param key (ContentHash) - Hash of the content of the "PNG" file
+     * @return (Path) - The entry, null if the content is not in the store
+     * @throws UncheckedIOException if the entry cannot be read to be checked
+     */
+    public Path lookup(ContentHash key){
+        assert key != null;
+        Stored stored;
+        synchronized (entries){
+            stored = entries.get(key);
+        }
+        if (stored == null){
+            misses.increment();
+            return null;
+        }
+        Path entry = pathOf(key);
+        if (link){
+            if (!intact(entry, stored.qoi())){
+                drop(key, stored);
+                misses.increment();
+                return null;
+            }
+        } else {
+            try {
+                Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e){
+                // Evicted by another thread since the lookup, reported when the entry is read
+            }
+        }
+        hits.increment();
+        return entry;
+    }
+
+    /**
+     * Store the "QOI" file encoded from a content, then evict the least recently used entries beyond the budget.
+     * Under pressure on the budget, the entry itself may be evicted by another thread before it is read
+     * @param key (ContentHash) - Hash of the content of the "PNG" file
+     * @param qoi (byte[]) - Content of the "QOI" file
+     * @return (Path) - The entry
+     * @throws UncheckedIOException if the entry cannot be written
+     */
+    public Path store(ContentHash key, byte[] qoi){
+        assert key != null && qoi != null;
+        Path entry = pathOf(key);
+        try {
+            Files.createDirectories(entry.getParent());
+            Path temporary = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".part");
+            try {
+                Files.write(temporary, qoi);
+                Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        synchronized (entries){
+            Stored previous = entries.put(key, new Stored(qoi.length, link ? ContentHash.of(qoi) : null));
+            used += qoi.length - (previous == null ? 0 : previous.size());
+        }
+        evict();
+        return entry;
+    }
+
+    // ==================================================================================
+    // ==================================== COUNTERS ====================================
+    // ==================================================================================
+
+    /**
+     * @return (Path) - Folder of the store
+     */
+    public Path root(){
+        return root;
+    }
+
+    /**
+     * @return (long) - Maximum total size of the entries, in bytes
+     */
+    public long budget(){
+        return budget;
+    }
+
+    /**
+     * @return (boolean) - True if the converted files are linked to the entries instead of being copies
+     */
+    public boolean linked(){
+        return link;
+    }
+
+    /**
+     * @return (long) - Total size of the entries, in bytes
+     */
+    public long used(){
+        synchronized (entries){
+            return used;
+        }
+    }
+
+    /**
+     * @return (int) - Number of entries
+     */
+    public int size(){
+        synchronized (entries){
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return (long) - Number of lookups that found their entry
+     */
+    public long hits(){
+        return hits.sum();
+    }
+
+    /**
+     * @return (long) - Number of lookups that did not find their entry
+     */
+    public long misses(){
+        return misses.sum();
+    }
+
+    /**
+     * @return (long) - Number of entries deleted to stay within the budget
+     */
+    public long evictions(){
+        return evictions.sum();
+    }
+
+    /**
+     * Summary of the counters
+     * @return (String) - The summary
+     */
+    @Override
+    public String toString(){
+        return String.format("%d hits, %d misses, %d evictions, %d entries, %.1f / %.1f MB",
+                hits(), misses(), evictions(), size(), used() / 1e6, budget / 1e6);
+    }
+
+    // ==================================================================================
+    // ==================================== UTILITIES ===================================
+    // ==================================================================================
+
+    /**
+     * Delete the least recently used entries until the store is within its budget
+     */
+    private void evict(){
+        List<ContentHash> evicted = new ArrayList<>();
+        synchronized (entries){
+            Iterator<Map.Entry<ContentHash, Stored>> eldest = entries.entrySet().iterator();
+            while (used > budget && eldest.hasNext()){
+                Map.Entry<ContentHash, Stored> entry = eldest.next();
+                used -= entry.getValue().size();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (ContentHash key : evicted){
+            try {
+                Files.deleteIfExists(pathOf(key));
+                evictions.increment();
+            } catch (IOException e){
+                // Left on the disk, it is found again the next time the store is opened
+            }
+        }
+    }
+
+    /**
+     * Drop an entry deleted by another thread
+     * @param key (ContentHash) - Hash of the entry
+     */
+    private void forget(ContentHash key){
+        synchronized (entries){
+            Stored stored = entries.remove(key);
+            if (stored != null){
+                used -= stored.size();
+            }
+        }
+    }
+
+    /**
+     * Drop an entry whose content changed, unless another thread stored it again since it was checked
+     * @param key (ContentHash) - Hash of the entry
+     * @param stored (Stored) - The checked entry
+     */
+    private void drop(ContentHash key, Stored stored){
+        synchronized (entries){
+            if (!entries.remove(key, stored)){
+                return;
+            }
+            used -= stored.size();
+        }
+        try {
+            Files.deleteIfExists(pathOf(key));
+        } catch (IOException e){
+            // Left on the disk, it is replaced when the content is stored again
+        }
+    }
+
+    /**
+     * Check that an entry still holds the content it was stored with
+     * @param entry (Path) - Entry of the store
+     * @param qoi (ContentHash) - Hash of the stored "QOI" file
+     * @return (boolean) - True if the entry exists and its content has the given hash
+     * @throws UncheckedIOException if the entry cannot be read
+     */
+    private static boolean intact(Path entry, ContentHash qoi){
+        try {
+            return ContentHash.of(Files.readAllBytes(entry)).equals(qoi);
+        } catch (NoSuchFileException e){
+            // Evicted by another thread since the lookup
+            return false;
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path pathOf(ContentHash key){
+        String name = key.toString().replace(':', '-');
+        return root.resolve(name.substring(0, 2)).resolve(name + SUFFIX);
+    }
+
+    /**
+     * Parse the name of an entry
+     * @param file (Path) - A file of the store
+     * @return (ContentHash) - Hash of the entry, null if the file is not an entry
+     */
+    private static ContentHash keyOf(Path file){
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX) || name.length() <= 32 + 1 + SUFFIX.length() || name.charAt(32) != '-'){
+            return null;
+        }
+        try {
+            long high = Long.parseUnsignedLong(name.substring(0, 16), 16);
+            long low = Long.parseUnsignedLong(name.substring(16, 32), 16);
+            long length = Long.parseLong(name.substring(33, name.length() - SUFFIX.length()));
+            return new ContentHash(high, low, length);
+        } catch (NumberFormatException e){
+            return null;
+        }
+    }
+
+    /**
+     * Replace the target by a copy of the entry, or in link mode by a hard link to the entry,
+     * falling back to a copy when the file system cannot link them
+     * @param entry (Path) - Entry of the store
+     * @param target (Path) - File to create or replace
+     * @throws IOException if the entry does not exist or the target cannot be written
+     */
+    private void copyOrLink(Path entry, Path target) throws IOException {
+        // Created next to its final name and moved, so that a failure never leaves a partial file
+        Path temporary = target.resolveSibling(target.getFileName() + ".part");
+        Files.deleteIfExists(temporary);
+        if (!link){
+            Files.copy(entry, temporary);
+        } else {
+            try {
+                Files.createLink(temporary, entry);
+            } catch (UnsupportedOperationException | FileSystemException e){
+                if (e instanceof NoSuchFileException missing){
+                    throw missing;
+                }
+                Files.copy(entry, temporary, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Replace the target by the content of an entry just stored : written from the content,
+     * or in link mode linked to the entry unless it was already evicted by another thread
+     * @param entry (Path) - Entry returned by QOIEncodeCache::store
+     * @param qoi (byte[]) - Content of the entry
+     * @param target (Path) - File to create or replace
+     * @throws IOException if the target cannot be written
+     */
+    void placeStored(Path entry, byte[] qoi, Path target) throws IOException {
+        if (link){
+            try {
+                copyOrLink(entry, target);
+                return;
+            } catch (NoSuchFileException e){
+                // Evicted by another thread since it was stored
+            }
+        }
+        Path temporary = target.resolveSibling(target.getFileName() + ".part");
+        Files.write(temporary, qoi);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
@@ -1,5 +1,8 @@
 package cs107;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * "Quite Ok Image" Encoder
@@ -150,6 +153,22 @@ public final class QOIEncoder {
     // ============================== GLOBAL ENCODING METHODS  ==========================
     // ==================================================================================
 
+    /**
+     * Encode the given image using the "Quite Ok Image" Protocol and count its chunks
+     * @param image (byte[][]) - Formatted image to encode
+     * @param stats (QOIStats) - Statistics where to count the pixels of the image with 4 channels, null to count nothing.
+     * A formatted image has no dimensions and its phases are not timed
+     * @return (byte[]) - "Quite Ok Image" representation of the image
+     */
+    public static byte[] encodeData(byte[][] image, QOIStats stats){
+        QOIStats.CodecEvent event = QOIStats.begin();
+        byte[] data = encodeData(image);
+        if (stats != null || event != null && event.shouldCommit()){
+            QOIStats.record(stats, event, "encode", 0, 0, image.length, QOISpecification.RGBA, data, 0, data.length, null);
+        }
+        return data;
+    }
+
     /**
      * Encode the given image using the "Quite Ok Image" Protocol
      * (See handout for more information about the "Quite Ok Image" protocol)
@@ -185,14 +204,15 @@ public final class QOIEncoder {
             }
             //=====ETAPE 2 =======================
             
-            if(ArrayUtils.equals(hachTable[QOISpecification.hash(image[i])], image[i])){
+            byte hash = QOISpecification.hash(image[i]);
+            if(ArrayUtils.equals(hachTable[hash], image[i])){
 
-                quiteOkImage.add(qoiOpIndex(QOISpecification.hash(image[i])));
+                quiteOkImage.add(qoiOpIndex(hash));
                 lastPixel = image[i];
                 continue;
             }
             else {
-                hachTable[QOISpecification.hash(image[i])] = image[i];
+                hachTable[hash] = image[i];
 
             }
             //=====ETAPE 3 =======================
@@ -245,12 +265,134 @@ public final class QOIEncoder {
      */
     public static byte[] qoiFile(Helper.Image image){
         assert image != null;
-        byte[] header = qoiHeader(image);
-        byte[] encoded = encodeData(ArrayUtils.imageToChannels(image.data()));
+        byte[] output = new byte[QOIChunkEncoder.maxFileSize(image.data()[0].length, image.data().length)];
+        int length = qoiFile(image, output);
+        return Arrays.copyOf(output, length);
+    }
+
+    /**
+     * Write the "Quite Ok Image" file of the image in the given buffer.
+     * The pixels are encoded row by row straight from the image data,
+     * without any intermediate representation.
+     * @param image (Helper.Image) - Image to encode
+     * @param output (byte[]) - Buffer where to write the file,
+     * see QOIChunkEncoder::maxFileSize for the size it needs in the worst case
+     * @return (int) - Number of bytes written in the buffer
+     * @throws AssertionError if the image or the buffer is null
+     */
+    public static int qoiFile(Helper.Image image, byte[] output){
+        assert image != null && output != null;
+        int[][] data = image.data();
+        int position = QOIChunkEncoder.writeHeader(data[0].length, data.length, image.channels(), image.color_space(), output, 0);
+        QOIChunkEncoder encoder = new QOIChunkEncoder();
+        for (int[] row : data){
+            position = encoder.encode(row, 0, row.length, output, position);
+        }
+        position = encoder.flush(output, position);
+        return QOIChunkEncoder.writeEOF(output, position);
+    }
 
-        byte[] qoiFile = ArrayUtils.concat(header,encoded,QOISpecification.QOI_EOF);
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file of a packed image.
+     * @param image (PackedImage) - Image to encode
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image is null
+     */
+    public static byte[] qoiFile(PackedImage image){
+        assert image != null;
+        byte[] output = new byte[QOIChunkEncoder.maxFileSize(image.width(), image.height())];
+        int length = qoiFile(image, output);
+        return Arrays.copyOf(output, length);
+    }
 
-        return qoiFile;
+    /**
+     * Write the "Quite Ok Image" file of a packed image in the given buffer.
+     * @param image (PackedImage) - Image to encode
+     * @param output (byte[]) - Buffer where to write the file,
+     * see QOIChunkEncoder::maxFileSize for the size it needs in the worst case
+     * @return (int) - Number of bytes written in the buffer
+     * @throws AssertionError if the image or the buffer is null
+     */
+    public static int qoiFile(PackedImage image, byte[] output){
+        return qoiFile(image, output, null);
+    }
+
+    /**
+     * Write the "Quite Ok Image" file of a packed image in the given buffer and count its chunks.
+     * The QOIStats.CodecEvent of Java Flight Recorder is committed too when it is enabled.
+     * @param image (PackedImage) - Image to encode
+     * @param output (byte[]) - Buffer where to write the file,
+     * see QOIChunkEncoder::maxFileSize for the size it needs in the worst case
+     * @param stats (QOIStats) - Statistics where to count the image, null to count nothing
+     * @return (int) - Number of bytes written in the buffer
+     * @throws AssertionError if the image or the buffer is null
+     */
+    public static int qoiFile(PackedImage image, byte[] output, QOIStats stats){
+        assert image != null && output != null;
+        QOIStats.CodecEvent event = QOIStats.begin();
+        long start = System.nanoTime();
+        int position = QOIChunkEncoder.writeHeader(image.width(), image.height(), image.channels(), image.color_space(), output, 0);
+        long header = System.nanoTime();
+        QOIChunkEncoder encoder = new QOIChunkEncoder();
+        position = encoder.encode(image.data(), 0, image.data().length, output, position);
+        position = encoder.flush(output, position);
+        long chunks = System.nanoTime();
+        int end = QOIChunkEncoder.writeEOF(output, position);
+        if (stats != null || event != null && event.shouldCommit()){
+            QOIStats.record(stats, event, "encode", image.width(), image.height(), (long) image.width() * image.height(), image.channels(),
+                    output, QOISpecification.HEADER_SIZE, position, new long[]{start, header, chunks, System.nanoTime()});
+        }
+        return end;
+    }
+
+    // ==================================================================================
+    // ============================== BYTEBUFFER ENCODING ===============================
+    // ==================================================================================
+
+    /**
+     * Write the "Quite Ok Image" file of a packed image in a ByteBuffer, which can be direct.
+     * @param image (PackedImage) - Image to encode
+     * @param output (ByteBuffer) - Buffer where to write the file, from its position.
+     * Its position is moved right after the file
+     * @return (int) - Number of bytes written in the buffer
+     * @throws AssertionError if the image or the buffer is null, or the buffer has less than
+     * QOIChunkEncoder::maxFileSize bytes remaining
+     */
+    public static int qoiFile(PackedImage image, ByteBuffer output){
+        assert image != null;
+        return qoiFile(IntBuffer.wrap(image.data()), image.width(), image.height(), image.channels(), image.color_space(), output);
+    }
+
+    /**
+     * Write the "Quite Ok Image" file of ARGB pixels held in an IntBuffer in a ByteBuffer.
+     * Both buffers can be direct (for example a ByteBuffer::asIntBuffer view of pixels received
+     * from a socket, and a mapped file), the pixels and the chunks are never copied to the heap.
+     * @param pixels (IntBuffer) - ARGB pixels, row after row, from its position.
+     * Its position is moved right after the last pixel
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param output (ByteBuffer) - Buffer where to write the file, from its position.
+     * Its position is moved right after the file
+     * @return (int) - Number of bytes written in the buffer
+     * @throws AssertionError if a buffer is null, pixels has less than width * height pixels remaining
+     * or output has less than QOIChunkEncoder::maxFileSize bytes remaining
+     */
+    public static int qoiFile(IntBuffer pixels, int width, int height, byte channels, byte colorSpace, ByteBuffer output){
+        assert pixels != null && output != null;
+        int size = Math.multiplyExact(width, height);
+        assert pixels.remaining() >= size;
+        assert output.remaining() >= QOIChunkEncoder.maxFileSize(width, height);
+        int start = output.position();
+        int position = QOIChunkEncoder.writeHeader(width, height, channels, colorSpace, output, start);
+        QOIChunkEncoder encoder = new QOIChunkEncoder();
+        position = encoder.encode(pixels, pixels.position(), pixels.position() + size, output, position);
+        position = encoder.flush(output, position);
+        position = QOIChunkEncoder.writeEOF(output, position);
+        pixels.position(pixels.position() + size);
+        output.position(position);
+        return position - start;
     }
 
 }
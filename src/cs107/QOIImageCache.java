@@ -0,0 +1,364 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache of decoded images, bounded by the memory of their pixels (width * height * 4 bytes).
+ * The images are keyed by file (path, last modification time and size, so a modified file is decoded again),
+ * by content (ContentHash of the file) or by any key given with its own loader, for example a tile of a QOITiles file.
+ * <p>
+ * The keys are spread over segments, each with its own lock and its own least recently used order,
+ * so threads reading different keys rarely wait for each other. When the budget is exceeded, the segment
+ * that just grew evicts its least recently used images first, then the next segments do.
+ * When several threads miss the same key at the same time, a single one decodes the image and the others wait for it.
+ * A load still running when its key is invalidated, or the cache cleared, gives its image to the threads waiting
+ * for it but does not cache it.
+ * @apiNote The cached images are shared : they must not be modified
+ */
+public final class QOIImageCache {
+
+    /**
+     * Number of segments chosen by default
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * A file, as it was when it was read
+     * @param path (Path) - Absolute and normalized path of the file
+     * @param modified (long) - Last modification time, in milliseconds
+     * @param size (long) - Size in bytes
+     */
+    public record FileKey(Path path, long modified, long size){}
+
+    /**
+     * A tile of a QOITiles file
+     * @param file (FileKey) - The tiled file
+     * @param column (int) - Column of the tile
+     * @param row (int) - Row of the tile
+     */
+    public record TileKey(FileKey file, int column, int row){}
+
+    private final long budget;
+    private final Segment[] segments;
+    private final AtomicLong used = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create an empty cache with DEFAULT_SEGMENTS segments
+     * @param budget (long) - Maximum number of bytes of pixels held by the cache
+     */
+    public QOIImageCache(long budget){
+        this(budget, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Create an empty cache
+     * @param budget (long) - Maximum number of bytes of pixels held by the cache
+     * @param segments (int) - Number of segments, more segments means less waiting between threads
+     * but a least recently used order kept on smaller sets of images
+     */
+    public QOIImageCache(long budget, int segments){
+        assert budget > 0 && segments > 0;
+        this.budget = budget;
+        this.segments = new Segment[segments];
+        for (int s = 0; s < segments; ++s){
+            this.segments[s] = new Segment();
+        }
+    }
+
+    // ==================================================================================
+    // ==================================== LOOKUPS =====================================
+    // ==================================================================================
+
+    /**
+     * Get the decoded image of a "Quite Ok Image" file, decoding it from a memory-mapped view on a miss
+     * @param path (String) - Relative or Absolute path to the file
+     * @return (PackedImage) - The decoded image
+     * @throws AssertionError if the file is corrupted
+     */
+    public PackedImage get(String path){
+        FileKey key = fileKey(path);
+        return get(key, () -> QOIDecoder.decodePackedQoiFile(Helper.map(key.path().toString())));
+    }
+
+    /**
+     * Get the decoded image of the content of a "Quite Ok Image" file, keyed by its ContentHash
+     * @param content (byte[]) - Content of the file
+     * @return (PackedImage) - The decoded image
+     * @throws AssertionError if the content is null or corrupted
+     */
+    public PackedImage get(byte[] content){
+        assert content != null;
+        return get(ContentHash.of(content), () -> QOIDecoder.decodePackedQoiFile(content));
+    }
+
+    /**
+     * Get a decoded tile of a QOITiles file
+     * @param path (String) - Relative or Absolute path to the tiled file
+     * @param column (int) - Column of the tile
+     * @param row (int) - Row of the tile
+     * @return (PackedImage) - The decoded tile
+     * @throws AssertionError if there is no such tile or the file is corrupted
+     */
+    public PackedImage tile(String path, int column, int row){
+        FileKey file = fileKey(path);
+        return get(new TileKey(file, column, row), () -> {
+            try (QOITiles.Reader reader = QOITiles.Reader.open(file.path().toString())){
+                return reader.tile(column, row);
+            }
+        });
+    }
+
+    /**
+     * Get the image of a key, calling the loader on a miss. While the loader runs, the other
+     * threads asking for the same key wait for its image instead of loading it again.
+     * An image larger than the whole budget is returned but not cached
+     * @param key (Object) - Key of the image, with value-based equals and hashCode
+     * @param loader (Supplier) - Decoding of the image
+     * @return (PackedImage) - The image
+     * @throws AssertionError if the key or the loader is null, or what the loader throws
+     * @throws RuntimeException if the loader returns null
+     */
+    public PackedImage get(Object key, Supplier<PackedImage> loader){
+        assert key != null && loader != null;
+        Segment segment = segment(key);
+        CompletableFuture<PackedImage> pending;
+        boolean loading = false;
+        synchronized (segment){
+            PackedImage image = segment.images.get(key);
+            if (image != null){
+                hits.increment();
+                return image;
+            }
+            misses.increment();
+            pending = segment.pending.get(key);
+            if (pending == null){
+                pending = new CompletableFuture<>();
+                segment.pending.put(key, pending);
+                loading = true;
+            }
+        }
+        if (!loading){
+            return await(pending);
+        }
+
+        PackedImage image;
+        try {
+            loads.increment();
+            image = loader.get();
+            if (image == null){
+                Helper.fail("The loader of %s returned null", key);
+            }
+        } catch (RuntimeException | Error e){
+            synchronized (segment){
+                segment.pending.remove(key, pending);
+            }
+            pending.completeExceptionally(e);
+            throw e;
+        }
+        long weight = weight(image);
+        synchronized (segment){
+            // Not pending anymore if the key was invalidated or the cache cleared during the load
+            if (segment.pending.remove(key, pending) && weight <= budget){
+                PackedImage previous = segment.images.put(key, image);
+                assert previous == null;
+                used.addAndGet(weight);
+            }
+        }
+        pending.complete(image);
+        evict(segment);
+        return image;
+    }
+
+    /**
+     * Remove the image of a key, if it is cached. A load of the key still running will not cache its image
+     * @param key (Object) - Key of the image
+     */
+    public void invalidate(Object key){
+        Segment segment = segment(key);
+        synchronized (segment){
+            segment.pending.remove(key);
+            PackedImage image = segment.images.remove(key);
+            if (image != null){
+                used.addAndGet(-weight(image));
+            }
+        }
+    }
+
+    /**
+     * Remove all the cached images. The loads still running will not cache their image
+     */
+    public void clear(){
+        for (Segment segment : segments){
+            synchronized (segment){
+                segment.pending.clear();
+                for (PackedImage image : segment.images.values()){
+                    used.addAndGet(-weight(image));
+                }
+                segment.images.clear();
+            }
+        }
+    }
+
+    // ==================================================================================
+    // ==================================== COUNTERS ====================================
+    // ==================================================================================
+
+    /**
+     * @return (long) - Maximum number of bytes of pixels held by the cache
+     */
+    public long budget(){
+        return budget;
+    }
+
+    /**
+     * @return (long) - Number of bytes of pixels held by the cache
+     */
+    public long used(){
+        return used.get();
+    }
+
+    /**
+     * @return (long) - Number of lookups that found their image in the cache
+     */
+    public long hits(){
+        return hits.sum();
+    }
+
+    /**
+     * @return (long) - Number of lookups that did not find their image, including the ones waiting for another thread
+     */
+    public long misses(){
+        return misses.sum();
+    }
+
+    /**
+     * @return (long) - Number of images decoded by the cache
+     */
+    public long loads(){
+        return loads.sum();
+    }
+
+    /**
+     * @return (long) - Number of images evicted to stay within the budget
+     */
+    public long evictions(){
+        return evictions.sum();
+    }
+
+    /**
+     * @return (double) - Share of the lookups that found their image in the cache
+     */
+    public double hitRate(){
+        long hit = hits(), total = hit + misses();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * Summary of the counters
+     * @return (String) - The summary
+     */
+    @Override
+    public String toString(){
+        return String.format("%d hits, %d misses (hit rate %.1f %%), %d loads, %d evictions, %.1f / %.1f MB",
+                hits(), misses(), hitRate() * 100, loads(), evictions(), used() / 1e6, budget / 1e6);
+    }
+
+    // ==================================================================================
+    // ==================================== UTILITIES ===================================
+    // ==================================================================================
+
+    /**
+     * Part of the cache holding the keys of the same hash, guarded by its own monitor
+     */
+    private static final class Segment {
+        /**
+         * Cached images, in access order : the least recently used one comes first
+         */
+        final LinkedHashMap<Object, PackedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * Images being loaded by a thread
+         */
+        final Map<Object, CompletableFuture<PackedImage>> pending = new HashMap<>();
+    }
+
+    private Segment segment(Object key){
+        int hash = key.hashCode();
+        return segments[Math.floorMod(hash ^ hash >>> 16, segments.length)];
+    }
+
+    /**
+     * Evict the least recently used images until the cache is within its budget,
+     * starting with the given segment. A single segment is locked at a time
+     * @param first (Segment) - Segment that just grew
+     */
+    private void evict(Segment first){
+        int start = 0;
+        while (start < segments.length && segments[start] != first){
+            ++start;
+        }
+        for (int s = 0; s < segments.length && used.get() > budget; ++s){
+            Segment segment = segments[(start + s) % segments.length];
+            synchronized (segment){
+                Iterator<PackedImage> eldest = segment.images.values().iterator();
+                while (used.get() > budget && eldest.hasNext()){
+                    used.addAndGet(-weight(eldest.next()));
+                    eldest.remove();
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    private static long weight(PackedImage image){
+        return (long) image.data().length * Integer.BYTES;
+    }
+
+    /**
+     * Key of a file in its current state
+     * @param path (String) - Relative or Absolute path to the file
+     * @return (FileKey) - The key
+     */
+    private static FileKey fileKey(String path){
+        assert path != null;
+        try {
+            Path file = Path.of(path).toAbsolutePath().normalize();
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new FileKey(file, attributes.lastModifiedTime().toMillis(), attributes.size());
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    private static PackedImage await(CompletableFuture<PackedImage> pending){
+        try {
+            return pending.join();
+        } catch (CompletionException e){
+            if (e.getCause() instanceof Error error){
+                throw error;
+            }
+            if (e.getCause() instanceof RuntimeException exception){
+                throw exception;
+            }
+            throw e;
+        }
+    }
+
+}
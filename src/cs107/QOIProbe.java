@@ -0,0 +1,261 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Header-only probing of "Quite Ok Image" files : the header is read with a single positional read
+ * of QOISpecification.HEADER_SIZE bytes, and the "End Of File" marker with a second one of
+ * QOISpecification.QOI_EOF.length bytes, so the chunks of a file are never read.
+ * The directory scanner probes the files of a folder on several threads, to list the dimensions
+ * of a large number of files.
+ * @apiNote Usage : QOIProbe [-j threads] folder ...
+ */
+public final class QOIProbe {
+
+    /**
+     * Not instantiable
+     */
+    private QOIProbe(){}
+
+    /**
+     * Number of threads of the scanner chosen by default : the probes mostly wait for the disk
+     */
+    public static final int DEFAULT_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of tasks per thread the files are split into, so that the threads finishing first take the remaining tasks
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * Header of a probed file
+     * @param path (Path) - Probed file
+     * @param size (long) - Size of the file in bytes, -1 if it cannot be read
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param colorSpace (byte) - Color space of the image
+     * @param error (String) - Reason why the file is not a "Quite Ok Image" file, null if it is one
+     */
+    public record Info(Path path, long size, int width, int height, byte channels, byte colorSpace, String error){
+
+        /**
+         * @return (boolean) - True if the file has a valid header and ends with the "End Of File" marker
+         */
+        public boolean valid(){
+            return error == null;
+        }
+
+        /**
+         * @return (long) - Number of pixels of the image
+         */
+        public long pixels(){
+            return (long) width * height;
+        }
+
+        private static Info invalid(Path path, long size, String error){
+            return new Info(path, size, 0, 0, (byte) 0, (byte) 0, error);
+        }
+    }
+
+    /**
+     * Main entry point of the scanner
+     * @param args (String[]) - Arguments passed to the program via the command line
+     */
+    public static void main(String[] args){
+        int threads = DEFAULT_THREADS;
+        List<Path> folders = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i){
+            if (args[i].equals("-j")){
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                folders.add(Path.of(args[i]));
+            }
+        }
+        if (folders.isEmpty()){
+            System.err.println("Usage : QOIProbe [-j threads] folder ...");
+            return;
+        }
+
+        long start = System.nanoTime();
+        long files = 0, invalid = 0, pixels = 0;
+        for (Path folder : folders){
+            for (Info info : scan(folder, threads)){
+                ++files;
+                if (info.valid()){
+                    pixels += info.pixels();
+                    System.out.printf("%-60s %6d x %-6d %d channels %s %12d bytes%n", info.path(), info.width(), info.height(),
+                            info.channels(), info.colorSpace() == QOISpecification.sRGB ? "sRGB  " : "linear", info.size());
+                } else {
+                    ++invalid;
+                    System.out.printf("%-60s INVALID : %s%n", info.path(), info.error());
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d files (%d invalid), %.1f megapixels, in %.2f s : %.1f files/s%n",
+                files, invalid, pixels / 1e6, seconds, files / seconds);
+    }
+
+    // ==================================================================================
+    // ================================= PROBING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Read the header of a file and check its "End Of File" marker, without reading its chunks
+     * @param file (Path) - File to probe
+     * @return (Info) - Header of the file, or the reason why it is not a "Quite Ok Image" file
+     */
+    public static Info probe(Path file){
+        assert file != null;
+        long size = -1;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            size = channel.size();
+            if (size < QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length){
+                return Info.invalid(file, size, "The file is smaller than a header and an \"End Of File\" marker");
+            }
+            ByteBuffer header = ByteBuffer.allocate(QOISpecification.HEADER_SIZE);
+            readFully(channel, header, 0);
+            ByteBuffer eof = ByteBuffer.allocate(QOISpecification.QOI_EOF.length);
+            readFully(channel, eof, size - QOISpecification.QOI_EOF.length);
+
+            for (int i = 0; i < QOISpecification.QOI_MAGIC.length; ++i){
+                if (header.get(i) != QOISpecification.QOI_MAGIC[i]){
+                    return Info.invalid(file, size, "Wrong magic number");
+                }
+            }
+            int width = header.getInt(4);
+            int height = header.getInt(8);
+            byte channels = header.get(12);
+            byte colorSpace = header.get(13);
+            if (width <= 0 || height <= 0){
+                return Info.invalid(file, size, "Wrong dimensions " + Integer.toUnsignedString(width) + " x " + Integer.toUnsignedString(height));
+            }
+            if (channels != QOISpecification.RGB && channels != QOISpecification.RGBA){
+                return Info.invalid(file, size, "Wrong number of channels " + channels);
+            }
+            if (colorSpace != QOISpecification.ALL && colorSpace != QOISpecification.sRGB){
+                return Info.invalid(file, size, "Wrong color space " + colorSpace);
+            }
+            if (!eof.flip().equals(ByteBuffer.wrap(QOISpecification.QOI_EOF))){
+                return Info.invalid(file, size, "Missing \"End Of File\" marker, the file may be truncated");
+            }
+            return new Info(file, size, width, height, channels, colorSpace, null);
+        } catch (IOException e){
+            return Info.invalid(file, size, String.valueOf(e));
+        }
+    }
+
+    /**
+     * Read bytes at a given position of a channel until the buffer is full
+     * @param channel (FileChannel) - Channel to read from
+     * @param buffer (ByteBuffer) - Buffer to fill, from its position to its limit
+     * @param position (long) - Position in the file of the first byte to read
+     * @throws IOException if the file cannot be read or ends before the buffer is full
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            int n = channel.read(buffer, position);
+            if (n < 0){
+                throw new IOException("Unexpected end of file");
+            }
+            position += n;
+        }
+    }
+
+    // ==================================================================================
+    // ================================= SCANNING METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Probe all the ".qoi" files of a folder and of its sub-folders.
+     * A sub-folder or a file that cannot be read is listed as an invalid Info, the scan goes on
+     * @param folder (Path) - Folder to scan
+     * @param threads (int) - Number of threads probing the files
+     * @return (List<Info>) - Headers of the files, sorted by path
+     * @throws RuntimeException if the folder itself cannot be read
+     */
+    public static List<Info> scan(Path folder, int threads){
+        assert folder != null && threads > 0;
+        List<Path> files = new ArrayList<>();
+        List<Info> failures = new ArrayList<>();
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<>(){
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes){
+                    if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".qoi")
+                            && (attributes.isRegularFile() || attributes.isSymbolicLink() && Files.isRegularFile(file))){
+                        files.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    if (file.equals(folder)){
+                        throw e;
+                    }
+                    failures.add(Info.invalid(file, -1, String.valueOf(e)));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e){
+            return Helper.fail("Cannot list \"%s\"", folder);
+        }
+        files.sort(null);
+        List<Info> infos = probe(files, threads);
+        if (!failures.isEmpty()){
+            infos.addAll(failures);
+            infos.sort(Comparator.comparing(Info::path));
+        }
+        return infos;
+    }
+
+    /**
+     * Probe the given files, split into TASKS_PER_THREAD batches per thread probed at the same time
+     * @param files (List<Path>) - Files to probe
+     * @param threads (int) - Number of threads probing the files
+     * @return (List<Info>) - Headers of the files, in the same order
+     */
+    public static List<Info> probe(List<Path> files, int threads){
+        assert files != null && threads > 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Info[]>> batches = new ArrayList<>();
+            int perTask = Math.max(1, files.size() / (threads * TASKS_PER_THREAD));
+            for (int from = 0; from < files.size(); from += perTask){
+                List<Path> batch = files.subList(from, Math.min(from + perTask, files.size()));
+                batches.add(pool.submit(() -> {
+                    Info[] infos = new Info[batch.size()];
+                    for (int i = 0; i < infos.length; ++i){
+                        infos[i] = probe(batch.get(i));
+                    }
+                    return infos;
+                }));
+            }
+            List<Info> infos = new ArrayList<>(files.size());
+            for (Info[] batch : Helper.await(batches, "batches of files")){
+                infos.addAll(List.of(batch));
+            }
+            return infos;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Streaming "Quite Ok Image" decoder. The header is parsed when the reader is created,
+ * then the pixels are decoded on demand, row by row or by spans of any size,
+ * while the file is read from an InputStream or a ReadableByteChannel
+ * through a fixed-size buffer. The memory used does not depend on the size of the image.
+ */
+public final class QOIReader implements Closeable {
+
+    /**
+     * Default size of the I/O buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Smallest accepted size of the I/O buffer, enough for the header or the longest chunk
+     */
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    private final InputStream stream;
+    private final ReadableByteChannel channel;
+    private final byte[] buffer;
+    private int start;
+    private int limit;
+    private boolean eof;
+
+    private final QOIChunkDecoder decoder = new QOIChunkDecoder();
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+    private final long size;
+    private long decoded;
+
+    /**
+     * Create a reader and parse the header of the image from the stream
+     * @param input (InputStream) - Stream to read the file from
+     * @throws IOException if the header cannot be read
+     * @throws AssertionError if the header is corrupted
+     */
+    public QOIReader(InputStream input) throws IOException {
+        this(input, null, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a reader and parse the header of the image from the stream
+     * @param input (InputStream) - Stream to read the file from
+     * @param bufferSize (int) - Size of the I/O buffer
+     * @throws IOException if the header cannot be read
+     * @throws AssertionError if the header is corrupted
+     */
+    public QOIReader(InputStream input, int bufferSize) throws IOException {
+        this(input, null, bufferSize);
+    }
+
+    /**
+     * Create a reader and parse the header of the image from the channel
+     * @param input (ReadableByteChannel) - Channel to read the file from
+     * @param bufferSize (int) - Size of the I/O buffer
+     * @throws IOException if the header cannot be read
+     * @throws AssertionError if the header is corrupted
+     */
+    public QOIReader(ReadableByteChannel input, int bufferSize) throws IOException {
+        this(null, input, bufferSize);
+    }
+
+    private QOIReader(InputStream stream, ReadableByteChannel channel, int bufferSize) throws IOException {
+        assert stream != null || channel != null;
+        this.stream = stream;
+        this.channel = channel;
+        this.buffer = new byte[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+        require(QOISpecification.HEADER_SIZE);
+        int[] header = QOIDecoder.decodeHeader(Arrays.copyOfRange(buffer, start, start + QOISpecification.HEADER_SIZE));
+        start += QOISpecification.HEADER_SIZE;
+        width = header[0];
+        height = header[1];
+        channels = (byte) header[2];
+        colorSpace = (byte) header[3];
+        size = (long) width * height;
+    }
+
+    // ==================================================================================
+    // ================================= HEADER METHODS =================================
+    // ==================================================================================
+
+    /**
+     * @return (int) - Width of the image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the image
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the image
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    /**
+     * @return (long) - Number of pixels decoded so far
+     */
+    public long decoded(){
+        return decoded;
+    }
+
+    // ==================================================================================
+    // ================================= READING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode the next row of the image
+     * @param argb (int[]) - Buffer where to store the ARGB packed pixels of the row
+     * @return (boolean) - false if all the rows had already been decoded, true otherwise
+     * @throws IOException if the input cannot be read or ends too early
+     * @throws AssertionError if the buffer is too short or the reader is not at the start of a row
+     */
+    public boolean readRow(int[] argb) throws IOException {
+        assert argb != null && argb.length >= width;
+        assert decoded % width == 0;
+        return read(argb, 0, width) > 0;
+    }
+
+    /**
+     * Decode the next pixels of the image, in row-major order
+     * @param pixels (int[]) - Buffer where to store the ARGB packed pixels
+     * @param offset (int) - Index in the buffer of the first pixel to write
+     * @param length (int) - Maximum number of pixels to decode
+     * @return (int) - Number of decoded pixels, -1 if all the pixels had already been decoded
+     * @throws IOException if the input cannot be read or ends too early
+     */
+    public int read(int[] pixels, int offset, int length) throws IOException {
+        assert pixels != null && 0 <= offset && 0 <= length && offset + length <= pixels.length;
+        if (decoded == size){
+            return -1;
+        }
+        int end = offset + (int) Math.min(length, size - decoded);
+        int i = offset;
+        while (i < end){
+            i = decoder.decode(buffer, start, limit, pixels, i, end);
+            start = decoder.position();
+            if (i < end){
+                // The next chunk is not entirely in the buffer
+                if (eof){
+                    throw new EOFException("The \"Quite Ok Image\" stream ends before its last pixel");
+                }
+                fill();
+            }
+        }
+        decoded += i - offset;
+        if (decoded == size){
+            checkEOF();
+        }
+        return i - offset;
+    }
+
+    /**
+     * Close the input
+     * @throws IOException if the input cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (stream != null){
+            stream.close();
+        } else {
+            channel.close();
+        }
+    }
+
+    // ==================================================================================
+    // ================================= BUFFER METHODS =================================
+    // ==================================================================================
+
+    /**
+     * Check that the chunk stream is followed by the "End Of File" marker
+     * @throws IOException if the input cannot be read or ends too early
+     */
+    private void checkEOF() throws IOException {
+        require(QOISpecification.QOI_EOF.length);
+        assert Arrays.equals(QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length,
+                buffer, start, start + QOISpecification.QOI_EOF.length);
+        start += QOISpecification.QOI_EOF.length;
+    }
+
+    /**
+     * Make sure that the buffer holds at least the given number of unread bytes
+     * @param count (int) - Number of bytes needed
+     * @throws IOException if the input cannot be read or ends too early
+     */
+    private void require(int count) throws IOException {
+        while (limit - start < count){
+            if (eof){
+                throw new EOFException("The \"Quite Ok Image\" stream is truncated");
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Move the unread bytes at the start of the buffer and read from the input to fill the rest of it
+     * @throws IOException if the input cannot be read
+     */
+    private void fill() throws IOException {
+        System.arraycopy(buffer, start, buffer, 0, limit - start);
+        limit -= start;
+        start = 0;
+        int n;
+        if (stream != null){
+            n = stream.read(buffer, limit, buffer.length - limit);
+        } else {
+            n = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        }
+        if (n < 0){
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+}
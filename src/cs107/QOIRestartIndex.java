@@ -0,0 +1,257 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Restart points of a "Quite Ok Image" file, allowing to decode it in parallel.
+ * A restart point is taken at the first chunk boundary after every interval rows
+ * and stores the state of the encoder at that point : the offset of the next chunk
+ * in the file, the index of the next pixel, the previous pixel and the 64-entry index.
+ * The file itself is a standard "Quite Ok Image" file, identical to QOIEncoder::qoiFile,
+ * the restart points are stored apart in a sidecar with the following layout (integers are "Big Endian") :
+ * <pre>
+ *  0 : magic number 'q', 'o', 'i', 'x'
+ *  4 : width (int), height (int), interval (int), number of restart points n (int)
+ * 20 : n times : offset in the file (int), index of the pixel (int), previous pixel (int), index (64 int)
+ * </pre>
+ * @param width (int) - Width of the image
+ * @param height (int) - Height of the image
+ * @param interval (int) - Number of rows between two restart points
+ * @param points (RestartPoint[]) - Restart points, the first one is the start of the chunk stream
+ */
+public record QOIRestartIndex(int width, int height, int interval, RestartPoint[] points){
+
+    /**
+     * Magic Number of a restart index sidecar
+     */
+    public static final byte[] QOIX_MAGIC = new byte[]{'q', 'o', 'i', 'x'};
+
+    /**
+     * Size of the fixed part of the sidecar, before the restart points
+     */
+    private static final int HEADER_SIZE = QOIX_MAGIC.length + 4 * 4;
+
+    /**
+     * Size of a restart point in the sidecar
+     */
+    private static final int POINT_SIZE = (3 + 64) * 4;
+
+    /**
+     * State of the encoder at a chunk boundary
+     * @param offset (int) - Index in the file of the next chunk
+     * @param pixel (int) - Index of the next pixel, in row-major order
+     * @param previous (int) - ARGB packed value of the previous pixel
+     * @param index (int[]) - The 64-entry index
+     */
+    public record RestartPoint(int offset, int pixel, int previous, int[] index){}
+
+    /**
+     * A "Quite Ok Image" file with its restart index
+     * @param file (byte[]) - Binary representation of the "Quite Ok Image" file
+     * @param index (QOIRestartIndex) - Its restart points
+     */
+    public record Indexed(byte[] file, QOIRestartIndex index){}
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the image and record a restart point every interval rows
+     * @param image (PackedImage) - Image to encode
+     * @param interval (int) - Number of rows between two restart points
+     * @return (Indexed) - The "Quite Ok Image" file and its restart index
+     * @throws AssertionError if the image is null or the interval is invalid
+     */
+    public static Indexed encode(PackedImage image, int interval){
+        assert image != null;
+        assert interval > 0;
+        int[] pixels = image.data();
+        byte[] output = new byte[QOIChunkEncoder.maxFileSize(image.width(), image.height())];
+        int position = QOIChunkEncoder.writeHeader(image.width(), image.height(), image.channels(), image.color_space(), output, 0);
+        QOIChunkEncoder encoder = new QOIChunkEncoder();
+        List<RestartPoint> points = new ArrayList<>();
+        points.add(snapshot(encoder, position, 0));
+
+        int i = 0;
+        for (int y = interval; y < image.height(); y += interval){
+            int boundary = y * image.width();
+            if (boundary < i){
+                continue;
+            }
+            position = encoder.encode(pixels, i, boundary, output, position);
+            i = boundary;
+            // A run crossing the boundary is written first, the restart point is taken right after it
+            while (encoder.pendingRun() > 0 && i < pixels.length && pixels[i] == encoder.previous()){
+                position = encoder.encode(pixels, i, i + 1, output, position);
+                ++i;
+            }
+            position = encoder.flush(output, position);
+            if (i < pixels.length){
+                points.add(snapshot(encoder, position, i));
+            }
+        }
+        position = encoder.encode(pixels, i, pixels.length, output, position);
+        position = encoder.flush(output, position);
+        position = QOIChunkEncoder.writeEOF(output, position);
+
+        QOIRestartIndex index = new QOIRestartIndex(image.width(), image.height(), interval, points.toArray(new RestartPoint[0]));
+        return new Indexed(Arrays.copyOf(output, position), index);
+    }
+
+    /**
+     * Take a restart point from the current state of the encoder
+     * @param encoder (QOIChunkEncoder) - Encoder at a chunk boundary
+     * @param offset (int) - Index in the file of the next chunk
+     * @param pixel (int) - Index of the next pixel
+     * @return (RestartPoint) - The restart point
+     */
+    private static RestartPoint snapshot(QOIChunkEncoder encoder, int offset, int pixel){
+        assert encoder.pendingRun() == 0;
+        int[] table = new int[64];
+        encoder.copyIndex(table);
+        return new RestartPoint(offset, pixel, encoder.previous(), table);
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a "Quite Ok Image" file, the segments between the restart points being
+     * decoded at the same time on the given pool
+     * @param content (byte[]) - Content of the "Quite Ok Image" file
+     * @param pool (ForkJoinPool) - Pool running the decoding of the segments
+     * @return (PackedImage) - Decoded image
+     * @throws AssertionError if the content does not match the index or is corrupted
+     */
+    public PackedImage decode(byte[] content, ForkJoinPool pool){
+        assert content != null && pool != null;
+        int[] header = QOIDecoder.decodeHeader(ArrayUtils.extract(content, 0, QOISpecification.HEADER_SIZE));
+        assert header[0] == width && header[1] == height;
+        PackedImage image = PackedImage.allocate(width, height, (byte) header[2], (byte) header[3]);
+        int limit = content.length - QOISpecification.QOI_EOF.length;
+
+        List<Callable<Void>> tasks = new ArrayList<>(points.length);
+        for (int k = 0; k < points.length; ++k){
+            RestartPoint point = points[k];
+            int end = k + 1 < points.length ? points[k + 1].pixel() : image.data().length;
+            int stop = k + 1 < points.length ? points[k + 1].offset() : limit;
+            tasks.add(() -> {
+                QOIChunkDecoder decoder = new QOIChunkDecoder();
+                decoder.restore(point.previous(), point.index());
+                int decoded = decoder.decode(content, point.offset(), stop, image.data(), point.pixel(), end);
+                assert decoded == end && decoder.position() == stop;
+                return null;
+            });
+        }
+        Helper.await(pool.invokeAll(tasks), "segments");
+        return image;
+    }
+
+    /**
+     * Decode a rectangle of a "Quite Ok Image" file, starting from the last restart point
+     * before its top-left corner instead of the start of the chunk stream
+     * @param content (byte[]) - Content of the "Quite Ok Image" file
+     * @param x (int) - Column of the top-left corner of the rectangle
+     * @param y (int) - Row of the top-left corner of the rectangle
+     * @param width (int) - Width of the rectangle
+     * @param height (int) - Height of the rectangle
+     * @return (PackedImage) - The rectangle, see QOIDecoder::decodeRegion
+     * @throws AssertionError if the content does not match the index or is corrupted or the rectangle is not in the image
+     */
+    public PackedImage decodeRegion(byte[] content, int x, int y, int width, int height){
+        assert content != null;
+        assert 0 <= x && x < this.width && 0 <= y && y < this.height;
+        int first = y * this.width + x;
+        RestartPoint point = points[0];
+        for (RestartPoint candidate : points){
+            if (candidate.pixel() > first){
+                break;
+            }
+            point = candidate;
+        }
+        QOIChunkDecoder decoder = new QOIChunkDecoder();
+        decoder.restore(point.previous(), point.index());
+        return QOIDecoder.decodeRegion(ByteBuffer.wrap(content), decoder, point.offset(), point.pixel(), x, y, width, height);
+    }
+
+    // ==================================================================================
+    // ============================== SIDECAR METHODS ===================================
+    // ==================================================================================
+
+    /**
+     * Binary representation of the restart index, to be stored next to the "Quite Ok Image" file
+     * @return (byte[]) - Content of the sidecar
+     */
+    public byte[] toBytes(){
+        ByteBuffer output = ByteBuffer.allocate(HEADER_SIZE + points.length * POINT_SIZE);
+        output.put(QOIX_MAGIC).putInt(width).putInt(height).putInt(interval).putInt(points.length);
+        for (RestartPoint point : points){
+            output.putInt(point.offset()).putInt(point.pixel()).putInt(point.previous());
+            for (int entry : point.index()){
+                output.putInt(entry);
+            }
+        }
+        return output.array();
+    }
+
+    /**
+     * Read a restart index from the content of its sidecar. The sidecar is checked before the index is built :
+     * the restart points must start at the first chunk, and their offsets and pixels must increase strictly
+     * and stay within the chunk stream of the file and within the image
+     * @param content (byte[]) - Content of the sidecar
+     * @param fileSize (int) - Size of the "Quite Ok Image" file the sidecar belongs to
+     * @return (QOIRestartIndex) - The restart index
+     * @throws AssertionError if the content is null
+     * @throws RuntimeException if the content is corrupted or does not match the size of the file
+     */
+    public static QOIRestartIndex fromBytes(byte[] content, int fileSize){
+        assert content != null;
+        if (content.length < HEADER_SIZE){
+            Helper.fail("The sidecar is smaller than its header");
+        }
+        ByteBuffer input = ByteBuffer.wrap(content);
+        byte[] magic = new byte[QOIX_MAGIC.length];
+        input.get(magic);
+        if (!ArrayUtils.equals(QOIX_MAGIC, magic)){
+            Helper.fail("Wrong magic number");
+        }
+        int width = input.getInt();
+        int height = input.getInt();
+        int interval = input.getInt();
+        int count = input.getInt();
+        if (width <= 0 || height <= 0 || interval <= 0){
+            Helper.fail("Wrong dimensions %d x %d or interval %d", width, height, interval);
+        }
+        if (count <= 0 || content.length != HEADER_SIZE + (long) count * POINT_SIZE){
+            Helper.fail("%d restart points do not fit in %d bytes", count, content.length);
+        }
+        long pixels = (long) width * height;
+        int limit = fileSize - QOISpecification.QOI_EOF.length;
+        RestartPoint[] points = new RestartPoint[count];
+        for (int k = 0; k < count; ++k){
+            int offset = input.getInt();
+            int pixel = input.getInt();
+            int previous = input.getInt();
+            if (k == 0 ? offset != QOISpecification.HEADER_SIZE || pixel != 0
+                    : offset <= points[k - 1].offset() || pixel <= points[k - 1].pixel()){
+                Helper.fail("The restart point %d does not follow the previous one", k);
+            }
+            if (offset >= limit || pixel >= pixels){
+                Helper.fail("The restart point %d is out of the file or of the image", k);
+            }
+            int[] table = new int[64];
+            input.asIntBuffer().get(table);
+            input.position(input.position() + table.length * 4);
+            points[k] = new RestartPoint(offset, pixel, previous, table);
+        }
+        return new QOIRestartIndex(width, height, interval, points);
+    }
+
+}
@@ -0,0 +1,367 @@
+package cs107;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP server exposing the "Quite Ok Image" codec on localhost.
+ * <pre>
+ * POST /encode : "PNG" (or any format ImageIO reads) in the body, answers the "QOI" file
+ * POST /decode : "QOI" file in the body, answers the "PNG" image
+ * GET  /stats  : latency histograms of both endpoints
+ * </pre>
+ * The bodies larger than the request size limit, and the images whose header declares more pixels than the pixel limit,
+ * are refused with "413 Payload Too Large" before anything is allocated for them.
+ * The other malformed bodies are refused with "400 Bad Request" by explicit checks, also when the assertions are disabled.
+ * The request and response buffers of every worker thread, and its QOICodecContext, are kept and reused between requests,
+ * unless they grew beyond RETAINED_BUFFER_SIZE for an unusually large image.
+ * @apiNote Usage : QOIServer [port] [request size limit in bytes] [threads] [pixel limit]
+ */
+public final class QOIServer {
+
+    /**
+     * Default port of the server
+     */
+    public static final int DEFAULT_PORT = 8107;
+
+    /**
+     * Default limit of the size of a request body
+     */
+    public static final int DEFAULT_MAX_REQUEST_SIZE = 64 << 20;
+
+    /**
+     * Default limit of the number of pixels of a decoded image
+     */
+    public static final long DEFAULT_MAX_PIXELS = 64L << 20;
+
+    /**
+     * Size in bytes beyond which a buffer of a worker thread is dropped after its request
+     */
+    public static final int RETAINED_BUFFER_SIZE = 16 << 20;
+
+    private static final int INITIAL_REQUEST_BUFFER_SIZE = 1 << 16;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int maxRequestSize;
+    private final long maxPixels;
+
+    private final LatencyHistogram encodeLatency = new LatencyHistogram();
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+
+    /**
+     * Request body of the current worker thread, its content is between 0 and the size of the request
+     */
+    private final ThreadLocal<byte[]> requestBuffer = ThreadLocal.withInitial(() -> new byte[INITIAL_REQUEST_BUFFER_SIZE]);
+
+    /**
+     * "PNG" file answered by the current worker thread
+     */
+    private final ThreadLocal<ExposedOutputStream> pngBuffer = ThreadLocal.withInitial(ExposedOutputStream::new);
+
+    private QOIServer(HttpServer server, ExecutorService executor, int maxRequestSize, long maxPixels){
+        this.server = server;
+        this.executor = executor;
+        this.maxRequestSize = maxRequestSize;
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * Main entry point of the server
+     * @param args (String[]) - Arguments passed to the program via the command line
+     */
+    public static void main(String[] args){
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int limit = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_REQUEST_SIZE;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long pixels = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_MAX_PIXELS;
+        QOIServer server = start(port, limit, pixels, threads);
+        System.out.printf("Listening on http://localhost:%d/ (encode, decode, stats)%n", server.port());
+    }
+
+    /**
+     * Start a server listening on the loopback interface, decoding images of at most DEFAULT_MAX_PIXELS pixels
+     * @param port (int) - Port to listen to, 0 to pick a free one
+     * @param maxRequestSize (int) - Limit of the size of a request body, in bytes
+     * @param threads (int) - Number of worker threads
+     * @return (QOIServer) - The running server
+     */
+    public static QOIServer start(int port, int maxRequestSize, int threads){
+        return start(port, maxRequestSize, DEFAULT_MAX_PIXELS, threads);
+    }
+
+    /**
+     * Start a server listening on the loopback interface
+     * @param port (int) - Port to listen to, 0 to pick a free one
+     * @param maxRequestSize (int) - Limit of the size of a request body, in bytes
+     * @param maxPixels (long) - Limit of the number of pixels of a decoded image
+     * @param threads (int) - Number of worker threads
+     * @return (QOIServer) - The running server
+     */
+    public static QOIServer start(int port, int maxRequestSize, long maxPixels, int threads){
+        assert maxRequestSize > 0 && maxPixels > 0 && threads > 0;
+        try {
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            QOIServer server = new QOIServer(http, executor, maxRequestSize, maxPixels);
+            http.createContext("/encode", server.handler(server.encodeLatency, server::encode));
+            http.createContext("/decode", server.handler(server.decodeLatency, server::decode));
+            http.createContext("/stats", server::stats);
+            http.setExecutor(executor);
+            http.start();
+            return server;
+        } catch (IOException e){
+            return Helper.fail("Cannot listen to the port %d", port);
+        }
+    }
+
+    /**
+     * @return (int) - Port the server listens to
+     */
+    public int port(){
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop the server, waiting at most one second for the requests being processed
+     */
+    public void stop(){
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // ==================================================================================
+    // ==================================== HANDLERS ====================================
+    // ==================================================================================
+
+    /**
+     * Conversion of a request body to a response body
+     */
+    private interface Conversion {
+        /**
+         * @param body (byte[]) - Buffer holding the request body
+         * @param length (int) - Size of the request body
+         * @param exchange (HttpExchange) - Exchange to answer to
+         * @throws IOException if the response cannot be sent
+         */
+        void convert(byte[] body, int length, HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * Create the handler of a conversion endpoint : checks the method and the size of the body,
+     * reads the body, runs the conversion and records its latency, then trims the buffers of the thread
+     * @param latency (LatencyHistogram) - Histogram of the endpoint
+     * @param conversion (Conversion) - Conversion of the endpoint
+     * @return (HttpHandler) - The handler
+     */
+    private HttpHandler handler(LatencyHistogram latency, Conversion conversion){
+        return exchange -> {
+            long start = System.nanoTime();
+            try (exchange){
+                if (!exchange.getRequestMethod().equals("POST")){
+                    sendText(exchange, 405, "Only POST is allowed");
+                    return;
+                }
+                String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+                try {
+                    if (declared != null && Long.parseLong(declared.trim()) > maxRequestSize){
+                        sendText(exchange, 413, "The body is larger than " + maxRequestSize + " bytes");
+                        return;
+                    }
+                } catch (NumberFormatException e){
+                    sendText(exchange, 400, "Invalid Content-Length : " + declared);
+                    return;
+                }
+                int length = readBody(exchange.getRequestBody());
+                if (length < 0){
+                    sendText(exchange, 413, "The body is larger than " + maxRequestSize + " bytes");
+                    return;
+                }
+                try {
+                    conversion.convert(requestBuffer.get(), length, exchange);
+                } catch (RuntimeException | AssertionError e){
+                    sendText(exchange, 400, "Cannot convert the body : " + e);
+                    return;
+                }
+                latency.record(System.nanoTime() - start);
+            } finally {
+                trimBuffers();
+            }
+        };
+    }
+
+    private void encode(byte[] body, int length, HttpExchange exchange) throws IOException {
+        BufferedImage io;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(body, 0, length))){
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()){
+                sendText(exchange, 415, "The body is not a readable image");
+                return;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                // The dimensions come from the header of the image : refuse it before its pixels are allocated
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels){
+                    sendText(exchange, 413, "The image has more than " + maxPixels + " pixels");
+                    return;
+                }
+                io = reader.read(0);
+            } catch (IIOException e){
+                sendText(exchange, 400, "Cannot read the image : " + e.getMessage());
+                return;
+            } finally {
+                reader.dispose();
+            }
+        }
+        QOICodecContext context = QOICodecContext.local();
+        int size = context.encode(ImageBridge.toPackedImage(io));
+        send(exchange, "application/octet-stream", context.output(), size);
+    }
+
+    private void decode(byte[] body, int length, HttpExchange exchange) throws IOException {
+        // The body comes from the network : it is checked explicitly, the assertions of the codec may be disabled
+        if (length < QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length){
+            Helper.fail("The body is smaller than a header and an \"End Of File\" marker");
+        }
+        ByteBuffer header = ByteBuffer.wrap(body, 0, QOISpecification.HEADER_SIZE);
+        long pixels = Integer.toUnsignedLong(header.getInt(4)) * Integer.toUnsignedLong(header.getInt(8));
+        if (pixels > maxPixels){
+            sendText(exchange, 413, "The image has more than " + maxPixels + " pixels");
+            return;
+        }
+        for (int i = 0; i < QOISpecification.QOI_MAGIC.length; ++i){
+            if (body[i] != QOISpecification.QOI_MAGIC[i]){
+                Helper.fail("Wrong magic number");
+            }
+        }
+        byte channels = header.get(12);
+        byte colorSpace = header.get(13);
+        if (header.getInt(4) <= 0 || header.getInt(8) <= 0){
+            Helper.fail("Wrong dimensions %s x %s", Integer.toUnsignedString(header.getInt(4)), Integer.toUnsignedString(header.getInt(8)));
+        }
+        if (channels != QOISpecification.RGB && channels != QOISpecification.RGBA){
+            Helper.fail("Wrong number of channels %d", channels);
+        }
+        if (colorSpace != QOISpecification.ALL && colorSpace != QOISpecification.sRGB){
+            Helper.fail("Wrong color space %d", colorSpace);
+        }
+        int chunks = length - QOISpecification.HEADER_SIZE - QOISpecification.QOI_EOF.length;
+        // A chunk holds at most one run of 62 pixels
+        if (pixels > 62L * chunks){
+            Helper.fail("%d bytes of chunks cannot hold %d pixels", chunks, pixels);
+        }
+        if (!Arrays.equals(body, length - QOISpecification.QOI_EOF.length, length,
+                QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length)){
+            Helper.fail("Missing \"End Of File\" marker, the body may be truncated");
+        }
+        QOICodecContext context = QOICodecContext.local();
+        context.decode(body, 0, length);
+        if (!context.complete()){
+            Helper.fail("The chunks do not hold exactly %d pixels", pixels);
+        }
+        ExposedOutputStream output = pngBuffer.get();
+        output.reset();
+        ImageIO.write(ImageBridge.toBufferedImage(context.pixels(), context.width(), context.height(), context.channels()), "png", output);
+        send(exchange, "image/png", output.buffer(), output.size());
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        try (exchange){
+            sendText(exchange, 200, "encode : " + encodeLatency + "\ndecode : " + decodeLatency + "\n");
+        }
+    }
+
+    // ==================================================================================
+    // ==================================== UTILITIES ===================================
+    // ==================================================================================
+
+    /**
+     * Read the request body in the buffer of the current thread, growing it if needed
+     * @param input (InputStream) - Request body
+     * @return (int) - Size of the body, -1 if it is larger than the limit
+     * @throws IOException if the body cannot be read
+     */
+    private int readBody(InputStream input) throws IOException {
+        byte[] buffer = requestBuffer.get();
+        int length = 0;
+        while (true){
+            if (length == buffer.length){
+                if (buffer.length > maxRequestSize){
+                    return -1;
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, maxRequestSize + 1L));
+                requestBuffer.set(buffer);
+            }
+            int n = input.read(buffer, length, buffer.length - length);
+            if (n < 0){
+                return length > maxRequestSize ? -1 : length;
+            }
+            length += n;
+        }
+    }
+
+    /**
+     * Drop the buffers of the current thread that grew beyond RETAINED_BUFFER_SIZE
+     */
+    private void trimBuffers(){
+        if (requestBuffer.get().length > RETAINED_BUFFER_SIZE){
+            requestBuffer.set(new byte[INITIAL_REQUEST_BUFFER_SIZE]);
+        }
+        if (pngBuffer.get().buffer().length > RETAINED_BUFFER_SIZE){
+            pngBuffer.remove();
+        }
+        QOICodecContext context = QOICodecContext.local();
+        if (context.output().length > RETAINED_BUFFER_SIZE || (long) context.pixels().length * Integer.BYTES > RETAINED_BUFFER_SIZE){
+            context.release();
+        }
+    }
+
+    private static void send(HttpExchange exchange, String type, byte[] content, int length) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream body = exchange.getResponseBody()){
+            body.write(content, 0, length);
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream body = exchange.getResponseBody()){
+            body.write(content);
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream giving access to its buffer, to send it without copying it
+     */
+    private static final class ExposedOutputStream extends ByteArrayOutputStream {
+        byte[] buffer(){
+            return buf;
+        }
+    }
+
+}
@@ -124,6 +124,20 @@ public final class QOISpecification {
     // ======================== "Quite Ok Image" Hash Function ==========================
     // ==================================================================================
 
+    /**
+     * Contribution of each channel value to the hash, modulo 64, for the red, green, blue and alpha channels
+     * (r * 3, g * 5, b * 7 and a * 11). The sum of the 4 contributions of a pixel, modulo 64, is its hash.
+     */
+    private static final byte[] HASH_R = hashTable(3), HASH_G = hashTable(5), HASH_B = hashTable(7), HASH_A = hashTable(11);
+
+    private static byte[] hashTable(int factor){
+        byte[] table = new byte[256];
+        for (int v = 0; v < table.length; ++v){
+            table[v] = (byte) (v * factor % 64);
+        }
+        return table;
+    }
+
     /**
      * Hash a given pixel using the hash function specific to "Quite Ok Image" format
      * @apiNote index = (r * 3 + g * 5 + b * 7 + a * 11) % 64
@@ -132,8 +146,30 @@ public final class QOISpecification {
      */
     public static byte hash(byte[] pixel){
         assert pixel.length == 4;
-        var tmp = (pixel[r] * 3 + pixel[g] * 5 + pixel[b] * 7 + pixel[a] * 11) % 64;
-        return (byte) (tmp < 0 ? tmp + 64 : tmp);
+        return (byte) hash(pixel[r], pixel[g], pixel[b], pixel[a]);
+    }
+
+    /**
+     * Hash the channels of a pixel using the precomputed contribution of every channel
+     * @apiNote Same index as QOISpecification::hash(byte[]), the channels are read as unsigned values
+     * @param red (byte) - Red channel
+     * @param green (byte) - Green channel
+     * @param blue (byte) - Blue channel
+     * @param alpha (byte) - Alpha channel
+     * @return (int) - hash of the pixel, between 0 and 63
+     */
+    public static int hash(byte red, byte green, byte blue, byte alpha){
+        return (HASH_R[red & 0xFF] + HASH_G[green & 0xFF] + HASH_B[blue & 0xFF] + HASH_A[alpha & 0xFF]) & 63;
+    }
+
+    /**
+     * Hash an ARGB packed pixel, like the ones of PackedImage and the chunk encoder and decoder
+     * @apiNote Same index as QOISpecification::hash(byte[]) on the pixel {r, g, b, a}
+     * @param argb (int) - ARGB packed pixel
+     * @return (int) - hash of the pixel, between 0 and 63
+     */
+    public static int hash(int argb){
+        return (HASH_R[argb >>> 16 & 0xFF] + HASH_G[argb >>> 8 & 0xFF] + HASH_B[argb & 0xFF] + HASH_A[argb >>> 24]) & 63;
     }
 
 }
\ No newline at end of file
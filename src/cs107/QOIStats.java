@@ -0,0 +1,395 @@
+package cs107;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.File;
+
+/**
+ * Statistics of the encoding or the decoding of "Quite Ok Image" files : number of chunks of
+ * every kind, bytes spent on every kind, histogram of the run lengths, hit rate of the index
+ * and time spent in every phase. The statistics of several images add up in the same object.
+ * The chunks are counted by reading the chunk stream once the image is encoded or decoded,
+ * so the encoding and decoding loops are the same with or without statistics :
+ * when no QOIStats is given and the {@link CodecEvent} is not enabled in Java Flight Recorder, nothing is counted.
+ * The price is a second pass over the chunk stream when they are : it reads the first byte of every chunk,
+ * which costs a fraction of the encoding or the decoding itself but is not free on large images.
+ * @apiNote An instance is not thread-safe, use one per thread and merge them with QOIStats::add.
+ * Usage : QOIStats file.qoi ... prints the statistics of the given files
+ */
+public final class QOIStats {
+
+    /**
+     * Kinds of chunks, with their size in bytes
+     */
+    public enum Op {
+        INDEX(1), DIFF(1), LUMA(2), RUN(1), RGB(4), RGBA(5);
+
+        private final int size;
+
+        Op(int size){
+            this.size = size;
+        }
+
+        /**
+         * @return (int) - Size in bytes of a chunk of this kind
+         */
+        public int size(){
+            return size;
+        }
+
+        /**
+         * Kind of the chunk starting with the given byte
+         * @param chunk (byte) - First byte of the chunk
+         * @return (Op) - Kind of the chunk
+         */
+        public static Op of(byte chunk){
+            if (chunk == QOISpecification.QOI_OP_RGB_TAG){
+                return RGB;
+            }
+            if (chunk == QOISpecification.QOI_OP_RGBA_TAG){
+                return RGBA;
+            }
+            return switch ((chunk & 0xFF) >>> 6){
+                case 0 -> INDEX;
+                case 1 -> DIFF;
+                case 2 -> LUMA;
+                default -> RUN;
+            };
+        }
+    }
+
+    /**
+     * Phases of the encoding or the decoding of a file
+     */
+    public enum Phase {
+        /** Writing or reading the header */
+        HEADER,
+        /** Encoding or decoding the chunks */
+        CHUNKS,
+        /** Writing or checking the "End Of File" marker */
+        END
+    }
+
+    /**
+     * Number of buckets of the run histogram, bucket k counts the runs of 2^k to 2^(k+1) - 1 pixels
+     */
+    public static final int RUN_BUCKETS = 32;
+
+    private final long[] ops = new long[Op.values().length];
+    private final long[] runs = new long[RUN_BUCKETS];
+    private final long[] nanos = new long[Phase.values().length];
+    private long images;
+    private long pixels;
+    private long rawBytes;
+
+    /**
+     * Create empty statistics
+     */
+    public QOIStats(){}
+
+    // ==================================================================================
+    // ==================================== ACCESSORS ===================================
+    // ==================================================================================
+
+    /**
+     * @return (long) - Number of counted images
+     */
+    public long images(){
+        return images;
+    }
+
+    /**
+     * @return (long) - Number of pixels of the counted images
+     */
+    public long pixels(){
+        return pixels;
+    }
+
+    /**
+     * @param op (Op) - Kind of chunk
+     * @return (long) - Number of chunks of this kind
+     */
+    public long count(Op op){
+        return ops[op.ordinal()];
+    }
+
+    /**
+     * @param op (Op) - Kind of chunk
+     * @return (long) - Number of bytes spent on chunks of this kind
+     */
+    public long bytes(Op op){
+        return count(op) * op.size();
+    }
+
+    /**
+     * @return (long) - Number of bytes of all the chunks
+     */
+    public long chunkBytes(){
+        long total = 0;
+        for (Op op : Op.values()){
+            total += bytes(op);
+        }
+        return total;
+    }
+
+    /**
+     * Histogram of the run lengths. A run longer than a QOI_OP_RUN chunk counts once, with its whole length
+     * @return (long[]) - Copy of the histogram, bucket k counts the runs of 2^k to 2^(k+1) - 1 pixels
+     */
+    public long[] runHistogram(){
+        return runs.clone();
+    }
+
+    /**
+     * Share of the pixels that are not part of a run and were found in the index
+     * @return (double) - Number of QOI_OP_INDEX chunks over the number of pixels encoded by another chunk than QOI_OP_RUN
+     */
+    public double indexHitRate(){
+        long lookups = count(Op.INDEX) + count(Op.DIFF) + count(Op.LUMA) + count(Op.RGB) + count(Op.RGBA);
+        return lookups == 0 ? 0 : (double) count(Op.INDEX) / lookups;
+    }
+
+    /**
+     * @param phase (Phase) - Phase of the encoding or the decoding
+     * @return (long) - Time spent in this phase, in nanoseconds
+     */
+    public long nanos(Phase phase){
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @return (double) - Size of the raw pixels (channels bytes per pixel) over the size of the chunks
+     */
+    public double ratio(){
+        long chunks = chunkBytes();
+        return chunks == 0 ? 0 : (double) rawBytes / chunks;
+    }
+
+    // ==================================================================================
+    // ==================================== COUNTING ====================================
+    // ==================================================================================
+
+    /**
+     * Add the statistics of other to these ones
+     * @param other (QOIStats) - Statistics to add
+     */
+    public void add(QOIStats other){
+        assert other != null;
+        for (int k = 0; k < ops.length; ++k){
+            ops[k] += other.ops[k];
+        }
+        for (int k = 0; k < runs.length; ++k){
+            runs[k] += other.runs[k];
+        }
+        for (int k = 0; k < nanos.length; ++k){
+            nanos[k] += other.nanos[k];
+        }
+        images += other.images;
+        pixels += other.pixels;
+        rawBytes += other.rawBytes;
+    }
+
+    /**
+     * Count an image and the chunks of its chunk stream
+     * @param pixels (long) - Number of pixels of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param data (byte[]) - Array holding the chunk stream
+     * @param start (int) - Index of the first chunk
+     * @param limit (int) - Index right after the last chunk
+     * @throws AssertionError if the arguments are out of bounds
+     * @throws RuntimeException if the last chunk is cut by the limit, the chunk stream being truncated
+     */
+    public void count(long pixels, byte channels, byte[] data, int start, int limit){
+        assert data != null && 0 <= start && start <= limit && limit <= data.length;
+        ++images;
+        this.pixels += pixels;
+        rawBytes += pixels * channels;
+        long run = 0;
+        int position = start;
+        while (position < limit){
+            Op op = Op.of(data[position]);
+            ++ops[op.ordinal()];
+            if (op == Op.RUN){
+                run += (data[position] & 0b111111) + 1;
+            } else if (run > 0){
+                countRun(run);
+                run = 0;
+            }
+            position += op.size();
+        }
+        if (position != limit){
+            Helper.fail("The last chunk is cut at index %d, the chunk stream is truncated", limit);
+        }
+        if (run > 0){
+            countRun(run);
+        }
+    }
+
+    private void countRun(long length){
+        runs[Math.min(RUN_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(length))]++;
+    }
+
+    /**
+     * Start the Java Flight Recorder event of the encoding or the decoding of a file.
+     * The event is only allocated when it is enabled in a running recording
+     * @return (CodecEvent) - The started event, null when it is disabled
+     */
+    static CodecEvent begin(){
+        if (!CODEC_EVENT.isEnabled()){
+            return null;
+        }
+        CodecEvent event = new CodecEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Record the end of the encoding or the decoding of a file : count it in the given statistics
+     * and commit its Java Flight Recorder event. Does nothing when there are no statistics and the event is disabled
+     * @param stats (QOIStats) - Statistics to update, can be null
+     * @param event (CodecEvent) - Event started before the header by QOIStats::begin, null if it is disabled
+     * @param operation (String) - "encode" or "decode"
+     * @param width (int) - Width of the image, 0 if the image has no dimensions
+     * @param height (int) - Height of the image, 0 if the image has no dimensions
+     * @param pixels (long) - Number of pixels of the image
+     * @param channels (byte) - Number of channels of the image
+     * @param data (byte[]) - Array holding the chunk stream
+     * @param start (int) - Index of the first chunk
+     * @param limit (int) - Index right after the last chunk
+     * @param times (long[]) - System::nanoTime at the start of every phase and at the end of the last one,
+     * null if the phases are not timed
+     */
+    static void record(QOIStats stats, CodecEvent event, String operation, int width, int height, long pixels, byte channels,
+                       byte[] data, int start, int limit, long[] times){
+        boolean commit = event != null && event.shouldCommit();
+        if (stats == null && !commit){
+            return;
+        }
+        QOIStats image = new QOIStats();
+        image.count(pixels, channels, data, start, limit);
+        if (times != null){
+            for (Phase phase : Phase.values()){
+                image.nanos[phase.ordinal()] = times[phase.ordinal() + 1] - times[phase.ordinal()];
+            }
+        }
+        if (stats != null){
+            stats.add(image);
+        }
+        if (commit){
+            event.operation = operation;
+            event.width = width;
+            event.height = height;
+            event.chunkBytes = image.chunkBytes();
+            event.chunkNanos = image.nanos(Phase.CHUNKS);
+            event.index = image.count(Op.INDEX);
+            event.diff = image.count(Op.DIFF);
+            event.luma = image.count(Op.LUMA);
+            event.run = image.count(Op.RUN);
+            event.rgb = image.count(Op.RGB);
+            event.rgba = image.count(Op.RGBA);
+            event.commit();
+        }
+    }
+
+    /**
+     * Summary of the statistics, one line per kind of chunk
+     * @return (String) - The summary
+     */
+    @Override
+    public String toString(){
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%d images, %d pixels, %d chunk bytes, ratio %.2f, index hit rate %.1f %%%n",
+                images, pixels, chunkBytes(), ratio(), indexHitRate() * 100));
+        for (Op op : Op.values()){
+            builder.append(String.format("  %-5s %12d chunks %12d bytes%n", op, count(op), bytes(op)));
+        }
+        builder.append("  runs :");
+        for (int k = 0; k < RUN_BUCKETS; ++k){
+            if (runs[k] > 0){
+                builder.append(String.format(" [%d, %d] %d", 1L << k, (1L << (k + 1)) - 1, runs[k]));
+            }
+        }
+        builder.append(String.format("%n  time : header %.3f ms, chunks %.3f ms, end %.3f ms",
+                nanos(Phase.HEADER) / 1e6, nanos(Phase.CHUNKS) / 1e6, nanos(Phase.END) / 1e6));
+        return builder.toString();
+    }
+
+    /**
+     * Print the statistics of the decoding of the given files
+     * @param args (String[]) - Paths of "Quite Ok Image" files
+     */
+    public static void main(String[] args){
+        QOIStats total = new QOIStats();
+        for (String path : args){
+            QOIStats stats = new QOIStats();
+            QOIDecoder.decodeQoiPixels(Helper.read(path), null, stats);
+            System.out.println(new File(path).getName() + " : " + stats);
+            total.add(stats);
+        }
+        if (args.length > 1){
+            System.out.println("total : " + total);
+        }
+    }
+
+    // ==================================================================================
+    // ============================== JAVA FLIGHT RECORDER ==============================
+    // ==================================================================================
+
+    /**
+     * Type of the CodecEvent, to know whether it is enabled without allocating an event
+     */
+    private static final EventType CODEC_EVENT = EventType.getEventType(CodecEvent.class);
+
+    /**
+     * Java Flight Recorder event of the encoding or the decoding of a file.
+     * Enable it with -XX:StartFlightRecording or a JFR configuration enabling "cs107.QOICodec"
+     */
+    @Name("cs107.QOICodec")
+    @Label("QOI Codec")
+    @Category("QOI")
+    @Description("Encoding or decoding of a \"Quite Ok Image\" file")
+    public static final class CodecEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Chunk Bytes")
+        @DataAmount
+        long chunkBytes;
+
+        @Label("Chunk Time")
+        @Timespan
+        long chunkNanos;
+
+        @Label("QOI_OP_INDEX")
+        long index;
+
+        @Label("QOI_OP_DIFF")
+        long diff;
+
+        @Label("QOI_OP_LUMA")
+        long luma;
+
+        @Label("QOI_OP_RUN")
+        long run;
+
+        @Label("QOI_OP_RGB")
+        long rgb;
+
+        @Label("QOI_OP_RGBA")
+        long rgba;
+    }
+
+}
@@ -0,0 +1,192 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Multi-threaded "Quite Ok Image" encoding in horizontal stripes.
+ * Each stripe is a chunk stream encoded independently, starting from
+ * QOISpecification.START_PIXEL and an empty index, so all the stripes can be encoded
+ * (and decoded) at the same time. The stripes are stored in a container with the
+ * following layout (integers are "Big Endian") :
+ * <pre>
+ *  0 : magic number 'q', 'o', 'i', 's'
+ *  4 : width (int), height (int), channels (byte), color space (byte), as in a QOI header
+ * 14 : height of a stripe (int)
+ * 18 : number of stripes n (int)
+ * 22 : n + 1 offsets (int) of the stripes from the start of the file, the last one is the end of the last stripe
+ * .. : the stripes
+ * .. : QOISpecification.QOI_EOF
+ * </pre>
+ * @apiNote A striped file is not a "Quite Ok Image" file, QOIEncoder::qoiFile still produces the standard format
+ */
+public final class QOIStripes {
+
+    /**
+     * Not instantiable
+     */
+    private QOIStripes(){}
+
+    /**
+     * Magic Number of a striped "Quite Ok Image" file
+     */
+    public static final byte[] QOIS_MAGIC = new byte[]{'q', 'o', 'i', 's'};
+
+    /**
+     * Size of the fixed part of the container header, before the offsets
+     */
+    public static final int HEADER_SIZE = QOISpecification.HEADER_SIZE + 4 + 4;
+
+    /**
+     * Smallest height of a stripe chosen by default
+     */
+    private static final int MIN_STRIPE_HEIGHT = 16;
+
+    /**
+     * Number of stripes per thread chosen by default, to balance the load
+     */
+    private static final int STRIPES_PER_THREAD = 4;
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the image in stripes on the common ForkJoinPool
+     * @param image (PackedImage) - Image to encode
+     * @return (byte[]) - Binary representation of the striped file
+     * @throws AssertionError if the image is null
+     */
+    public static byte[] encode(PackedImage image){
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return encode(image, defaultStripeHeight(image.height(), pool.getParallelism()), pool);
+    }
+
+    /**
+     * Encode the image in stripes on the given pool
+     * @param image (PackedImage) - Image to encode
+     * @param stripeHeight (int) - Number of rows of a stripe, the last stripe may be shorter
+     * @param pool (ForkJoinPool) - Pool running the encoding of the stripes
+     * @return (byte[]) - Binary representation of the striped file
+     * @throws AssertionError if the image or the pool is null or the stripe height is invalid
+     */
+    public static byte[] encode(PackedImage image, int stripeHeight, ForkJoinPool pool){
+        assert image != null && pool != null;
+        assert stripeHeight > 0;
+        int width = image.width();
+        int count = (image.height() + stripeHeight - 1) / stripeHeight;
+
+        List<Callable<byte[]>> tasks = new ArrayList<>(count);
+        for (int s = 0; s < count; ++s){
+            int from = s * stripeHeight * width;
+            int to = Math.min(image.height(), (s + 1) * stripeHeight) * width;
+            tasks.add(() -> {
+                byte[] buffer = new byte[(to - from) * QOIChunkEncoder.MAX_CHUNK_SIZE + 1];
+                QOIChunkEncoder encoder = new QOIChunkEncoder();
+                int length = encoder.flush(buffer, encoder.encode(image.data(), from, to, buffer, 0));
+                return Arrays.copyOf(buffer, length);
+            });
+        }
+        List<byte[]> stripes = Helper.await(pool.invokeAll(tasks), "stripes");
+
+        int start = HEADER_SIZE + 4 * (count + 1);
+        long size = start + QOISpecification.QOI_EOF.length;
+        for (byte[] stripe : stripes){
+            size += stripe.length;
+        }
+        assert size <= Integer.MAX_VALUE - 8;
+        ByteBuffer output = ByteBuffer.wrap(new byte[(int) size]);
+        output.put(QOIS_MAGIC).putInt(width).putInt(image.height()).put(image.channels()).put(image.color_space());
+        output.putInt(stripeHeight).putInt(count);
+        int offset = start;
+        for (byte[] stripe : stripes){
+            output.putInt(offset);
+            offset += stripe.length;
+        }
+        output.putInt(offset);
+        for (byte[] stripe : stripes){
+            output.put(stripe);
+        }
+        output.put(QOISpecification.QOI_EOF);
+        return output.array();
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a striped file on the common ForkJoinPool
+     * @param content (byte[]) - Content of the striped file
+     * @return (PackedImage) - Decoded image
+     * @throws AssertionError if the content is null or corrupted
+     */
+    public static PackedImage decode(byte[] content){
+        return decode(content, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decode a striped file, all the stripes being decoded at the same time on the given pool
+     * @param content (byte[]) - Content of the striped file
+     * @param pool (ForkJoinPool) - Pool running the decoding of the stripes
+     * @return (PackedImage) - Decoded image
+     * @throws AssertionError if the content or the pool is null or the content is corrupted
+     */
+    public static PackedImage decode(byte[] content, ForkJoinPool pool){
+        assert content != null && pool != null;
+        assert content.length >= HEADER_SIZE + 4 + QOISpecification.QOI_EOF.length;
+        ByteBuffer input = ByteBuffer.wrap(content);
+        byte[] magic = new byte[QOIS_MAGIC.length];
+        input.get(magic);
+        assert ArrayUtils.equals(QOIS_MAGIC, magic);
+        int width = input.getInt();
+        int height = input.getInt();
+        byte channels = input.get();
+        byte colorSpace = input.get();
+        PackedImage image = PackedImage.allocate(width, height, channels, colorSpace);
+        int stripeHeight = input.getInt();
+        int count = input.getInt();
+        assert stripeHeight > 0 && count == (height + stripeHeight - 1) / stripeHeight;
+        int[] offsets = new int[count + 1];
+        for (int s = 0; s <= count; ++s){
+            offsets[s] = input.getInt();
+        }
+        assert offsets[count] == content.length - QOISpecification.QOI_EOF.length;
+
+        List<Callable<byte[]>> tasks = new ArrayList<>(count);
+        for (int s = 0; s < count; ++s){
+            int from = s * stripeHeight * width;
+            int to = Math.min(height, (s + 1) * stripeHeight) * width;
+            int start = offsets[s];
+            int limit = offsets[s + 1];
+            tasks.add(() -> {
+                QOIChunkDecoder decoder = new QOIChunkDecoder();
+                int decoded = decoder.decode(content, start, limit, image.data(), from, to);
+                assert decoded == to && decoder.position() == limit;
+                return null;
+            });
+        }
+        Helper.await(pool.invokeAll(tasks), "stripes");
+        return image;
+    }
+
+    // ==================================================================================
+    // ==================================== UTILITIES ===================================
+    // ==================================================================================
+
+    /**
+     * Choose a stripe height giving a few stripes per thread, without making the stripes too short
+     * @param height (int) - Height of the image
+     * @param parallelism (int) - Number of threads
+     * @return (int) - Height of a stripe
+     */
+    public static int defaultStripeHeight(int height, int parallelism){
+        int stripes = Math.max(1, parallelism * STRIPES_PER_THREAD);
+        return Math.max(MIN_STRIPE_HEIGHT, (height + stripes - 1) / stripes);
+    }
+
+}
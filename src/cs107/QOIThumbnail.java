@@ -0,0 +1,212 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoding of reduced-resolution previews of "Quite Ok Image" files.
+ * The chunk stream is decoded one row at a time in a row buffer, and every row is
+ * reduced on the fly into the previews : the full image is never stored. A preview
+ * reduced by a factor f has ceil(width / f) x ceil(height / f) pixels, so a 1/8 preview
+ * needs 1/64 of the memory of the image, plus one row of the image and one row of sums.
+ * Several previews of different factors can be reduced during a single pass over the chunks.
+ */
+public final class QOIThumbnail {
+
+    /**
+     * Not instantiable
+     */
+    private QOIThumbnail(){}
+
+    /**
+     * Largest reduction factor, so that the sum of a channel over a row of a block fits in 16 bits
+     */
+    public static final int MAX_FACTOR = 256;
+
+    /**
+     * Reduction of a block of factor x factor pixels to a single pixel
+     */
+    public enum Filter {
+        /** Mean of every channel over the block, rounded to the nearest value */
+        BOX,
+        /** Top-left pixel of the block */
+        NEAREST
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a preview of a "Quite Ok Image" file, box-filtered
+     * @param content (byte[]) - Content of the file to decode
+     * @param factor (int) - Reduction factor of both dimensions, between 1 and MAX_FACTOR
+     * @return (PackedImage) - The preview, with the channels and the color space of the file
+     * @throws AssertionError if content is null or corrupted or the factor is invalid
+     */
+    public static PackedImage decode(byte[] content, int factor){
+        return decode(content, factor, Filter.BOX);
+    }
+
+    /**
+     * Decode a preview of a "Quite Ok Image" file
+     * @param content (byte[]) - Content of the file to decode
+     * @param factor (int) - Reduction factor of both dimensions, between 1 and MAX_FACTOR
+     * @param filter (Filter) - Reduction of a block of pixels
+     * @return (PackedImage) - The preview, with the channels and the color space of the file
+     * @throws AssertionError if content is null or corrupted or the factor is invalid
+     */
+    public static PackedImage decode(byte[] content, int factor, Filter filter){
+        return decode(content, new int[]{factor}, filter)[0];
+    }
+
+    /**
+     * Decode several previews of a "Quite Ok Image" file in a single pass over its chunks
+     * @param content (byte[]) - Content of the file to decode
+     * @param factors (int[]) - Reduction factor of every preview, between 1 and MAX_FACTOR
+     * @param filter (Filter) - Reduction of a block of pixels
+     * @return (PackedImage[]) - The previews, in the order of the factors
+     * @throws AssertionError if content is null or corrupted or a factor is invalid
+     */
+    public static PackedImage[] decode(byte[] content, int[] factors, Filter filter){
+        assert content != null;
+        return decode(ByteBuffer.wrap(content), factors, filter);
+    }
+
+    /**
+     * Decode several previews of a "Quite Ok Image" file held in a ByteBuffer, for example
+     * a file memory-mapped with Helper::map, in a single pass over its chunks.
+     * The chunks are read in place, without copying them to the heap.
+     * @param content (ByteBuffer) - Content of the file to decode, from index 0 to its limit
+     * @param factors (int[]) - Reduction factor of every preview, between 1 and MAX_FACTOR
+     * @param filter (Filter) - Reduction of a block of pixels
+     * @return (PackedImage[]) - The previews, in the order of the factors
+     * @throws AssertionError if content is null or corrupted or a factor is invalid
+     */
+    public static PackedImage[] decode(ByteBuffer content, int[] factors, Filter filter){
+        assert content != null && factors != null && filter != null;
+        assert content.limit() >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        byte[] header = new byte[QOISpecification.HEADER_SIZE];
+        content.get(0, header);
+        int[] decodedHeader = QOIDecoder.decodeHeader(header);
+        int width = decodedHeader[0];
+        int height = decodedHeader[1];
+
+        Reduction[] reductions = new Reduction[factors.length];
+        for (int k = 0; k < factors.length; ++k){
+            reductions[k] = new Reduction(width, height, (byte) decodedHeader[2], (byte) decodedHeader[3], factors[k], filter);
+        }
+
+        // Reading the heap array directly is faster than going through the ByteBuffer
+        byte[] array = content.hasArray() && content.arrayOffset() == 0 ? content.array() : null;
+        QOIChunkDecoder decoder = new QOIChunkDecoder();
+        int[] row = new int[width];
+        int position = QOISpecification.HEADER_SIZE;
+        int limit = content.limit() - QOISpecification.QOI_EOF.length;
+        for (int y = 0; y < height; ++y){
+            int decoded = array != null
+                    ? decoder.decode(array, position, limit, row, 0, width)
+                    : decoder.decode(content, position, limit, row, 0, width);
+            assert decoded == width;
+            position = decoder.position();
+            for (Reduction reduction : reductions){
+                reduction.accept(row, y);
+            }
+        }
+        assert position == limit;
+
+        PackedImage[] previews = new PackedImage[reductions.length];
+        for (int k = 0; k < reductions.length; ++k){
+            previews[k] = reductions[k].preview;
+        }
+        return previews;
+    }
+
+    /**
+     * Size of a dimension of a preview
+     * @param size (int) - Size of the dimension in the image
+     * @param factor (int) - Reduction factor
+     * @return (int) - Size of the dimension in the preview, ceil(size / factor)
+     */
+    public static int reducedSize(int size, int factor){
+        assert size > 0 && factor > 0;
+        return (size - 1) / factor + 1;
+    }
+
+    // ==================================================================================
+    // ==================================== REDUCTION ===================================
+    // ==================================================================================
+
+    /**
+     * Reduction of the rows of an image into one preview
+     */
+    private static final class Reduction {
+
+        private final int width;
+        private final int height;
+        private final int factor;
+        private final Filter filter;
+        private final PackedImage preview;
+
+        /**
+         * Sums of the alpha, red, green and blue channels of the blocks of the current row of blocks,
+         * 4 ints per block (null for Filter.NEAREST)
+         */
+        private final int[] sums;
+
+        Reduction(int width, int height, byte channels, byte colorSpace, int factor, Filter filter){
+            assert 0 < factor && factor <= MAX_FACTOR;
+            this.width = width;
+            this.height = height;
+            this.factor = factor;
+            this.filter = filter;
+            this.preview = PackedImage.allocate(reducedSize(width, factor), reducedSize(height, factor), channels, colorSpace);
+            this.sums = filter == Filter.BOX ? new int[preview.width() * 4] : null;
+        }
+
+        /**
+         * Reduce the next row of the image
+         * @param row (int[]) - ARGB pixels of the row
+         * @param y (int) - Index of the row in the image
+         */
+        void accept(int[] row, int y){
+            int[] data = preview.data();
+            int offset = (y / factor) * preview.width();
+            if (filter == Filter.NEAREST){
+                if (y % factor == 0){
+                    for (int x = 0, i = offset; x < width; x += factor, ++i){
+                        data[i] = row[x];
+                    }
+                }
+                return;
+            }
+
+            for (int x = 0, s = 0; x < width; s += 4){
+                int end = Math.min(x + factor, width);
+                // Two channels per int, in 16-bit lanes : alpha and green, red and blue
+                int ag = 0, rb = 0;
+                for (; x < end; ++x){
+                    int px = row[x];
+                    ag += px >>> 8 & 0x00FF00FF;
+                    rb += px & 0x00FF00FF;
+                }
+                sums[s] += ag >>> 16;
+                sums[s + 1] += rb >>> 16;
+                sums[s + 2] += ag & 0xFFFF;
+                sums[s + 3] += rb & 0xFFFF;
+            }
+            if ((y + 1) % factor != 0 && y + 1 != height){
+                return;
+            }
+            // Last row of a row of blocks : write the means, the blocks of the last row and column may be smaller
+            int rows = y % factor + 1;
+            for (int x = 0, s = 0, i = offset; x < width; x += factor, s += 4, ++i){
+                int count = (Math.min(x + factor, width) - x) * rows;
+                int half = count / 2;
+                data[i] = (sums[s] + half) / count << 24 | (sums[s + 1] + half) / count << 16
+                        | (sums[s + 2] + half) / count << 8 | (sums[s + 3] + half) / count;
+                sums[s] = sums[s + 1] = sums[s + 2] = sums[s + 3] = 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,497 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tiled "Quite Ok Image" container, giving random access to huge images.
+ * The image is cut in tiles of a fixed size (the tiles of the last column and of the last row may be smaller),
+ * each tile is a chunk stream encoded independently, row after row, starting from
+ * QOISpecification.START_PIXEL and an empty index. Any tile can then be decoded alone, in a time
+ * bounded by the size of the tile. The tiles are stored row of tiles after row of tiles, in a container
+ * with the following layout (integers are "Big Endian") :
+ * <pre>
+ *  0 : magic number 'q', 'o', 'i', 't'
+ *  4 : width (int), height (int), channels (byte), color space (byte), as in a QOI header
+ * 14 : width of a tile (int), height of a tile (int)
+ * 22 : number of columns of tiles (int), number of rows of tiles (int)
+ * 30 : n + 1 offsets (long) of the tiles from the start of the file, the last one is the end of the last tile
+ * .. : the tiles
+ * .. : QOISpecification.QOI_EOF
+ * </pre>
+ * The offsets are longs so that the file of a huge image can be larger than 2 GB. Such a file can only be
+ * written with QOITiles::write and read with a Reader, which maps the tiles one by one.
+ * @apiNote A tiled file is not a "Quite Ok Image" file, QOIEncoder::qoiFile still produces the standard format
+ */
+public final class QOITiles {
+
+    /**
+     * Not instantiable
+     */
+    private QOITiles(){}
+
+    /**
+     * Magic Number of a tiled "Quite Ok Image" file
+     */
+    public static final byte[] QOIT_MAGIC = new byte[]{'q', 'o', 'i', 't'};
+
+    /**
+     * Size of the fixed part of the container header, before the offsets
+     */
+    public static final int HEADER_SIZE = QOISpecification.HEADER_SIZE + 4 * 4;
+
+    /**
+     * Size of a tile chosen by default, in both dimensions
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the image in tiles of DEFAULT_TILE_SIZE x DEFAULT_TILE_SIZE pixels on the common ForkJoinPool
+     * @param image (PackedImage) - Image to encode
+     * @return (byte[]) - Binary representation of the tiled file
+     * @throws AssertionError if the image is null or its tiled file is larger than an array
+     */
+    public static byte[] encode(PackedImage image){
+        return encode(image, DEFAULT_TILE_SIZE, DEFAULT_TILE_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Encode the image in tiles on the given pool
+     * @param image (PackedImage) - Image to encode
+     * @param tileWidth (int) - Width of a tile
+     * @param tileHeight (int) - Height of a tile
+     * @param pool (ForkJoinPool) - Pool running the encoding of the tiles
+     * @return (byte[]) - Binary representation of the tiled file
+     * @throws AssertionError if the image or the pool is null, the size of the tiles is invalid
+     * or the tiled file is larger than an array
+     */
+    public static byte[] encode(PackedImage image, int tileWidth, int tileHeight, ForkJoinPool pool){
+        byte[][] tiles = encodeTiles(image, tileWidth, tileHeight, pool);
+        ByteBuffer header = header(image, tileWidth, tileHeight, tiles);
+        long size = (long) header.capacity() + QOISpecification.QOI_EOF.length;
+        for (byte[] tile : tiles){
+            size += tile.length;
+        }
+        assert size <= Integer.MAX_VALUE - 8;
+        ByteBuffer output = ByteBuffer.wrap(new byte[(int) size]);
+        output.put(header.array());
+        for (byte[] tile : tiles){
+            output.put(tile);
+        }
+        output.put(QOISpecification.QOI_EOF);
+        return output.array();
+    }
+
+    /**
+     * Encode the image in tiles on the given pool and write the tiled file, which can be larger than 2 GB
+     * @param image (PackedImage) - Image to encode
+     * @param tileWidth (int) - Width of a tile
+     * @param tileHeight (int) - Height of a tile
+     * @param pool (ForkJoinPool) - Pool running the encoding of the tiles
+     * @param path (String) - Relative or Absolute path to the file
+     * @throws AssertionError if the image or the pool is null or the size of the tiles is invalid
+     */
+    public static void write(PackedImage image, int tileWidth, int tileHeight, ForkJoinPool pool, String path){
+        byte[][] tiles = encodeTiles(image, tileWidth, tileHeight, pool);
+        ByteBuffer header = header(image, tileWidth, tileHeight, tiles);
+        try (var channel = FileChannel.open(Path.of(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            writeFully(channel, header);
+            for (byte[] tile : tiles){
+                writeFully(channel, ByteBuffer.wrap(tile));
+            }
+            writeFully(channel, ByteBuffer.wrap(QOISpecification.QOI_EOF));
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to write to : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Encode every tile of the image in its own chunk stream
+     * @param image (PackedImage) - Image to encode
+     * @param tileWidth (int) - Width of a tile
+     * @param tileHeight (int) - Height of a tile
+     * @param pool (ForkJoinPool) - Pool running the encoding of the tiles
+     * @return (byte[][]) - Chunk streams of the tiles, row of tiles after row of tiles
+     */
+    private static byte[][] encodeTiles(PackedImage image, int tileWidth, int tileHeight, ForkJoinPool pool){
+        assert image != null && pool != null;
+        assert tileWidth > 0 && tileHeight > 0;
+        int width = image.width();
+        int columns = (width - 1) / tileWidth + 1;
+        int rows = (image.height() - 1) / tileHeight + 1;
+
+        List<Callable<byte[]>> tasks = new ArrayList<>(columns * rows);
+        for (int row = 0; row < rows; ++row){
+            for (int column = 0; column < columns; ++column){
+                int x = column * tileWidth;
+                int y = row * tileHeight;
+                int w = Math.min(tileWidth, width - x);
+                int h = Math.min(tileHeight, image.height() - y);
+                tasks.add(() -> {
+                    byte[] buffer = new byte[w * h * QOIChunkEncoder.MAX_CHUNK_SIZE + 1];
+                    QOIChunkEncoder encoder = new QOIChunkEncoder();
+                    int position = 0;
+                    // The rows of the tile follow each other in the same chunk stream, a run can cross them
+                    for (int i = y * width + x, end = (y + h) * width; i < end; i += width){
+                        position = encoder.encode(image.data(), i, i + w, buffer, position);
+                    }
+                    return Arrays.copyOf(buffer, encoder.flush(buffer, position));
+                });
+            }
+        }
+        return Helper.await(pool.invokeAll(tasks), "tiles").toArray(new byte[0][]);
+    }
+
+    /**
+     * Write the header of the container and the offsets of the tiles
+     * @param image (PackedImage) - Encoded image
+     * @param tileWidth (int) - Width of a tile
+     * @param tileHeight (int) - Height of a tile
+     * @param tiles (byte[][]) - Chunk streams of the tiles
+     * @return (ByteBuffer) - Buffer backed by an array holding the header and the offsets
+     */
+    private static ByteBuffer header(PackedImage image, int tileWidth, int tileHeight, byte[][] tiles){
+        int columns = (image.width() - 1) / tileWidth + 1;
+        int rows = (image.height() - 1) / tileHeight + 1;
+        assert tiles.length == columns * rows;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 8 * (tiles.length + 1));
+        header.put(QOIT_MAGIC).putInt(image.width()).putInt(image.height()).put(image.channels()).put(image.color_space());
+        header.putInt(tileWidth).putInt(tileHeight).putInt(columns).putInt(rows);
+        long offset = header.capacity();
+        for (byte[] tile : tiles){
+            header.putLong(offset);
+            offset += tile.length;
+        }
+        header.putLong(offset);
+        return header.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a whole tiled file on the common ForkJoinPool
+     * @param content (byte[]) - Content of the tiled file
+     * @return (PackedImage) - Decoded image
+     * @throws AssertionError if the content is null or corrupted
+     */
+    public static PackedImage decode(byte[] content){
+        assert content != null;
+        try (Reader reader = new Reader(ByteBuffer.wrap(content))){
+            return reader.region(0, 0, reader.width(), reader.height(), ForkJoinPool.commonPool());
+        }
+    }
+
+    /**
+     * Random access to the tiles of a tiled file. The file is memory-mapped, so only the pages
+     * of the tiles that are decoded are read from the disk. The tiles of a file larger than 2 GB
+     * are mapped one by one.
+     * @apiNote A reader can be used by several threads at the same time
+     */
+    public static final class Reader implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer content;
+        private final byte[] array;
+        private final long[] offsets;
+
+        private final int width;
+        private final int height;
+        private final byte channels;
+        private final byte colorSpace;
+        private final int tileWidth;
+        private final int tileHeight;
+        private final int columns;
+        private final int rows;
+
+        /**
+         * Read the header of a tiled file held in a ByteBuffer
+         * @param content (ByteBuffer) - Content of the tiled file, from index 0 to its limit
+         * @throws AssertionError if the content is null or corrupted
+         */
+        public Reader(ByteBuffer content){
+            this(null, content, content.limit());
+        }
+
+        private Reader(FileChannel channel, ByteBuffer content, long size){
+            assert content != null;
+            assert size >= HEADER_SIZE + 8 + QOISpecification.QOI_EOF.length;
+            this.channel = channel;
+            this.content = size <= Integer.MAX_VALUE ? content : null;
+            // Reading the heap array directly is faster than going through the ByteBuffer
+            this.array = content.hasArray() && content.arrayOffset() == 0 ? content.array() : null;
+            for (int i = 0; i < QOIT_MAGIC.length; ++i){
+                assert content.get(i) == QOIT_MAGIC[i];
+            }
+            width = content.getInt(4);
+            height = content.getInt(8);
+            channels = content.get(12);
+            colorSpace = content.get(13);
+            assert width > 0 && height > 0;
+            assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
+            assert colorSpace == QOISpecification.ALL || colorSpace == QOISpecification.sRGB;
+            tileWidth = content.getInt(14);
+            tileHeight = content.getInt(18);
+            columns = content.getInt(22);
+            rows = content.getInt(26);
+            assert tileWidth > 0 && tileHeight > 0;
+            assert columns == (width - 1) / tileWidth + 1 && rows == (height - 1) / tileHeight + 1;
+            // The offsets are checked once here, so that decoding a tile can trust them
+            long table = HEADER_SIZE + 8 * ((long) columns * rows + 1);
+            assert table <= content.limit() - QOISpecification.QOI_EOF.length;
+            offsets = new long[columns * rows + 1];
+            for (int t = 0; t < offsets.length; ++t){
+                offsets[t] = content.getLong(HEADER_SIZE + 8 * t);
+            }
+            assert offsets[0] == table;
+            for (int t = 0; t + 1 < offsets.length; ++t){
+                assert offsets[t] <= offsets[t + 1] && offsets[t + 1] - offsets[t] <= Integer.MAX_VALUE;
+            }
+            assert offsets[offsets.length - 1] == size - QOISpecification.QOI_EOF.length;
+        }
+
+        /**
+         * Open a tiled file, mapping it in memory
+         * @param path (String) - Relative or Absolute path to the file
+         * @return (Reader) - Reader of the file, to be closed
+         * @throws AssertionError if the file is corrupted, the file is then closed
+         */
+        public static Reader open(String path){
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(Path.of(path), StandardOpenOption.READ);
+            } catch (IOException e){
+                return Helper.fail("An error occurred while trying to map : \"%s\"%n", path);
+            }
+            boolean opened = false;
+            try {
+                long size = channel.size();
+                // A file larger than 2 GB cannot be mapped at once : only its first 2 GB, holding the header, are mapped here
+                ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+                Reader reader = new Reader(channel, content, size);
+                opened = true;
+                return reader;
+            } catch (IOException e){
+                return Helper.fail("An error occurred while trying to map : \"%s\"%n", path);
+            } finally {
+                if (!opened){
+                    try {
+                        channel.close();
+                    } catch (IOException e){
+                        // The error of the opening is the one reported
+                    }
+                }
+            }
+        }
+
+        /**
+         * Close the file, the tiles already decoded stay valid
+         */
+        @Override
+        public void close(){
+            if (channel == null){
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e){
+                Helper.fail("An error occurred while trying to close a tiled file");
+            }
+        }
+
+        // ==================================================================================
+        // ==================================== ACCESSORS ===================================
+        // ==================================================================================
+
+        /**
+         * @return (int) - Width of the image
+         */
+        public int width(){
+            return width;
+        }
+
+        /**
+         * @return (int) - Height of the image
+         */
+        public int height(){
+            return height;
+        }
+
+        /**
+         * @return (byte) - Number of channels of the image
+         */
+        public byte channels(){
+            return channels;
+        }
+
+        /**
+         * @return (byte) - Color space of the image
+         */
+        public byte colorSpace(){
+            return colorSpace;
+        }
+
+        /**
+         * @return (int) - Width of a tile, the tiles of the last column may be narrower
+         */
+        public int tileWidth(){
+            return tileWidth;
+        }
+
+        /**
+         * @return (int) - Height of a tile, the tiles of the last row may be shorter
+         */
+        public int tileHeight(){
+            return tileHeight;
+        }
+
+        /**
+         * @return (int) - Number of columns of tiles
+         */
+        public int columns(){
+            return columns;
+        }
+
+        /**
+         * @return (int) - Number of rows of tiles
+         */
+        public int rows(){
+            return rows;
+        }
+
+        // ==================================================================================
+        // ================================ DECODING METHODS ================================
+        // ==================================================================================
+
+        /**
+         * Decode a single tile
+         * @param column (int) - Column of the tile
+         * @param row (int) - Row of the tile
+         * @return (PackedImage) - The tile, with the channels and the color space of the image
+         * @throws AssertionError if there is no such tile or the file is corrupted
+         */
+        public PackedImage tile(int column, int row){
+            assert 0 <= column && column < columns && 0 <= row && row < rows;
+            int w = Math.min(tileWidth, width - column * tileWidth);
+            int h = Math.min(tileHeight, height - row * tileHeight);
+            PackedImage tile = PackedImage.allocate(w, h, channels, colorSpace);
+            decodeTile(column, row, 0, 0, w, h, tile.data(), 0, w);
+            return tile;
+        }
+
+        /**
+         * Decode a rectangle of the image, the tiles it intersects being decoded at the same time
+         * on the given pool. Only the rows of a tile down to the bottom of the rectangle are decoded,
+         * and only the columns in the rectangle are written
+         * @param x (int) - Column of the top-left corner of the rectangle
+         * @param y (int) - Row of the top-left corner of the rectangle
+         * @param width (int) - Width of the rectangle
+         * @param height (int) - Height of the rectangle
+         * @param pool (ForkJoinPool) - Pool running the decoding of the tiles
+         * @return (PackedImage) - The rectangle, with the channels and the color space of the image
+         * @throws AssertionError if the rectangle is not in the image or the file is corrupted
+         */
+        public PackedImage region(int x, int y, int width, int height, ForkJoinPool pool){
+            assert pool != null;
+            assert width > 0 && height > 0 && x >= 0 && y >= 0;
+            assert x <= this.width - width && y <= this.height - height;
+            PackedImage region = PackedImage.allocate(width, height, channels, colorSpace);
+            List<Callable<byte[]>> tasks = new ArrayList<>();
+            for (int row = y / tileHeight; row <= (y + height - 1) / tileHeight; ++row){
+                for (int column = x / tileWidth; column <= (x + width - 1) / tileWidth; ++column){
+                    // Intersection of the rectangle with the tile, in the coordinates of the tile
+                    int left = column * tileWidth, top = row * tileHeight;
+                    int x0 = Math.max(x, left) - left, x1 = Math.min(x + width, left + tileWidth) - left;
+                    int y0 = Math.max(y, top) - top, y1 = Math.min(y + height, top + tileHeight) - top;
+                    int origin = (top + y0 - y) * width + (left + x0 - x);
+                    int c = column, r = row;
+                    tasks.add(() -> {
+                        decodeTile(c, r, x0, y0, x1, y1, region.data(), origin, width);
+                        return null;
+                    });
+                }
+            }
+            Helper.await(pool.invokeAll(tasks), "tiles");
+            return region;
+        }
+
+        /**
+         * Decode a rectangle of a tile
+         * @param column (int) - Column of the tile
+         * @param row (int) - Row of the tile
+         * @param x0 (int) - First column of the rectangle in the tile (inclusive)
+         * @param y0 (int) - First row of the rectangle in the tile (inclusive)
+         * @param x1 (int) - Last column of the rectangle in the tile (exclusive)
+         * @param y1 (int) - Last row of the rectangle in the tile (exclusive)
+         * @param pixels (int[]) - Buffer where to store the pixels
+         * @param origin (int) - Index in the buffer of the top-left pixel of the rectangle
+         * @param stride (int) - Distance in the buffer between two rows of the rectangle
+         */
+        private void decodeTile(int column, int row, int x0, int y0, int x1, int y1, int[] pixels, int origin, int stride){
+            int t = row * columns + column;
+            int w = Math.min(tileWidth, width - column * tileWidth);
+            ByteBuffer input;
+            int start;
+            int limit;
+            if (content != null){
+                input = content;
+                start = (int) offsets[t];
+                limit = (int) offsets[t + 1];
+            } else {
+                input = map(offsets[t], offsets[t + 1] - offsets[t]);
+                start = 0;
+                limit = input.limit();
+            }
+
+            QOIChunkDecoder decoder = new QOIChunkDecoder();
+            int position = start;
+            int pixel = 0;
+            boolean heap = array != null && input == content;
+            for (int y = y0; y < y1; ++y){
+                int first = y * w + x0;
+                int skipped = heap
+                        ? decoder.skip(array, position, limit, first - pixel)
+                        : decoder.skip(input, position, limit, first - pixel);
+                assert skipped == first - pixel;
+                position = decoder.position();
+                int from = origin + (y - y0) * stride;
+                int decoded = heap
+                        ? decoder.decode(array, position, limit, pixels, from, from + x1 - x0)
+                        : decoder.decode(input, position, limit, pixels, from, from + x1 - x0);
+                assert decoded == from + x1 - x0;
+                position = decoder.position();
+                pixel = first + x1 - x0;
+            }
+        }
+
+        private ByteBuffer map(long offset, long length){
+            assert length <= Integer.MAX_VALUE;
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            } catch (IOException e){
+                return Helper.fail("An error occurred while trying to map a tile");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streaming "Quite Ok Image" encoder. The image is given row by row and the chunks
+ * are written to an OutputStream or a WritableByteChannel through a fixed-size buffer,
+ * so the memory used does not depend on the size of the image.
+ * The header is written when the writer is created, the pending run and
+ * the "End Of File" marker when it is closed.
+ * @apiNote The output is the same as QOIEncoder::qoiFile for the same image
+ */
+public final class QOIWriter implements Closeable {
+
+    /**
+     * Default size of the I/O buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Smallest accepted size of the I/O buffer, enough for the header or a pixel and a run
+     */
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    private final OutputStream stream;
+    private final WritableByteChannel channel;
+    private final byte[] buffer;
+    private int position;
+
+    private final QOIChunkEncoder encoder = new QOIChunkEncoder();
+    private final int width;
+    private final int height;
+    private int rows;
+    private boolean closed;
+
+    /**
+     * Create a writer and write the header of the image to the stream
+     * @param output (OutputStream) - Stream where to write the file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws IOException if the header cannot be written
+     */
+    public QOIWriter(OutputStream output, int width, int height, byte channels, byte colorSpace) throws IOException {
+        this(output, null, width, height, channels, colorSpace, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a writer and write the header of the image to the stream
+     * @param output (OutputStream) - Stream where to write the file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param bufferSize (int) - Size of the I/O buffer
+     * @throws IOException if the header cannot be written
+     */
+    public QOIWriter(OutputStream output, int width, int height, byte channels, byte colorSpace, int bufferSize) throws IOException {
+        this(output, null, width, height, channels, colorSpace, bufferSize);
+    }
+
+    /**
+     * Create a writer and write the header of the image to the channel
+     * @param output (WritableByteChannel) - Channel where to write the file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param bufferSize (int) - Size of the I/O buffer
+     * @throws IOException if the header cannot be written
+     */
+    public QOIWriter(WritableByteChannel output, int width, int height, byte channels, byte colorSpace, int bufferSize) throws IOException {
+        this(null, output, width, height, channels, colorSpace, bufferSize);
+    }
+
+    private QOIWriter(OutputStream stream, WritableByteChannel channel, int width, int height,
+                      byte channels, byte colorSpace, int bufferSize) throws IOException {
+        assert stream != null || channel != null;
+        assert width > 0 && height > 0;
+        this.stream = stream;
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.buffer = new byte[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+        position = QOIChunkEncoder.writeHeader(width, height, channels, colorSpace, buffer, 0);
+    }
+
+    /**
+     * Number of rows written so far
+     * @return (int) - Number of rows
+     */
+    public int rows(){
+        return rows;
+    }
+
+    // ==================================================================================
+    // ================================= WRITING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the next row of the image
+     * @param argb (int[]) - ARGB packed pixels of the row, its first width pixels are used
+     * @throws IOException if the buffer cannot be written to the output
+     * @throws AssertionError if all the rows have already been written or the row is too short
+     */
+    public void writeRow(int[] argb) throws IOException {
+        writeRow(argb, 0);
+    }
+
+    /**
+     * Encode the next row of the image
+     * @param pixels (int[]) - ARGB packed pixels
+     * @param offset (int) - Index in pixels of the first pixel of the row
+     * @throws IOException if the buffer cannot be written to the output
+     * @throws AssertionError if all the rows have already been written or the row is too short
+     */
+    public void writeRow(int[] pixels, int offset) throws IOException {
+        assert !closed && rows < height;
+        assert pixels != null && 0 <= offset && offset + width <= pixels.length;
+        int from = offset;
+        int end = offset + width;
+        while (from < end){
+            // A call to encode writes at most MAX_CHUNK_SIZE bytes per pixel plus a pending run
+            int span = Math.min(end - from, (buffer.length - position - 1) / QOIChunkEncoder.MAX_CHUNK_SIZE);
+            if (span <= 0){
+                drain();
+                continue;
+            }
+            position = encoder.encode(pixels, from, from + span, buffer, position);
+            from += span;
+        }
+        ++rows;
+    }
+
+    /**
+     * Write the pending run and the "End Of File" marker, then close the output.
+     * The output is closed even when the writing fails
+     * @throws IOException if the output cannot be written or closed
+     * @throws AssertionError if some rows have not been written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed){
+            return;
+        }
+        closed = true;
+        try {
+            assert rows == height : "Only " + rows + " of the " + height + " rows have been written";
+            if (buffer.length - position < 1 + QOISpecification.QOI_EOF.length){
+                drain();
+            }
+            position = encoder.flush(buffer, position);
+            position = QOIChunkEncoder.writeEOF(buffer, position);
+            drain();
+        } finally {
+            if (stream != null){
+                stream.close();
+            } else {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Write the content of the buffer to the output and empty it
+     * @throws IOException if the output cannot be written
+     */
+    private void drain() throws IOException {
+        if (stream != null){
+            stream.write(buffer, 0, position);
+        } else {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, position);
+            while (bytes.hasRemaining()){
+                channel.write(bytes);
+            }
+        }
+        position = 0;
+    }
+
+}